@@ -0,0 +1,114 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Measures the heap the analysis thread allocates per frame once it has warmed up, with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, for the drawing of the contours and for
+ * the whole analysis with each feature extraction. The results go to a sink which keeps nothing, so only the
+ * objects of the analysis itself are counted; a new track or crossing still allocates, but only per vehicle.
+ * <p>
+ * Usage: AllocationBenchmark [video [config.properties]]
+ * <br>-Dframes=N sets the number of frames (300), -Dbudget=B the bytes per frame the drawing and the analysis with
+ * the configured extraction, "components" by default, may allocate (256); above it the benchmark exits with 1. The
+ * other extraction is only reported. "contours" does not meet the budget: the OpenCV 3.1 binding of findContours
+ * creates a MatOfPoint for every contour.
+ */
+public class AllocationBenchmark {
+    static {
+        Benchmark.loadLibrary();
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int count = Integer.getInteger("frames", 300);
+        long budget = Long.getLong("budget", 256);
+        String video = args.length > 0 ? args[0] : null;
+        AnalysisConfig config = args.length > 1 ? StageBenchmark.loadConfig(args[1]) : StageBenchmark.syntheticConfig();
+        if (!THREADS.isThreadAllocatedMemorySupported())
+            throw new IllegalStateException("This JVM does not measure the allocated memory of a thread");
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        List<Mat> raw = video != null ? BenchmarkFrames.fromVideo(video, count) : BenchmarkFrames.synthetic(count);
+        if (raw.isEmpty())
+            throw new IllegalArgumentException("No frames in " + video);
+        Size size = config.getAnalysisSize() != null ? config.getAnalysisSize() : raw.get(0).size();
+        List<Mat> frames = BenchmarkFrames.resize(raw, size);
+        System.out.println((video != null ? video : "synthetic scene") + ", " + frames.size() + " frames in " + size);
+        System.out.printf("%-44s %16s%n", "Benchmark", "bytes/frame");
+
+        FrameGeometry geometry = new FrameGeometry(config, size);
+        CountVehicles countVehicles = new CountVehicles(geometry.scaleArea(config.getAreaThreshold()),
+                geometry.scaleArea(config.getVehicleSizeThreshold()));
+        countVehicles.setLanes(geometry.countingLines, geometry.speedLines);
+        String checked = config.getFeatures();
+        countVehicles.setFeatureExtractor(FeatureExtractor.create(checked));
+        VideoProcessor processor = VideoProcessor.create(config.getEngine(), config.getImageThreshold(), config.getHistory());
+        Mat foreground = new Mat();
+        Mat canvas = new Mat();
+        Mat binary = new Mat();
+        // the mask of the last frame, with the model learned from all of them
+        for (Mat frame : frames) {
+            processor.process(frame).copyTo(foreground);
+        }
+        double drawing = report("CountVehicles.findAndDrawContours (" + checked + ")", frames.size(), i -> {
+            frames.get(i).copyTo(canvas);
+            foreground.copyTo(binary);
+        }, i -> countVehicles.findAndDrawContours(canvas, binary));
+
+        boolean isWithinBudget = drawing <= budget;
+        for (String method : FeatureExtractor.METHODS) {
+            config.setFeatures(method);
+            AnalysisSession session = new AnalysisSession(config, 25, size, Benchmark.discardingResults(), new AnalysisListener() {
+            });
+            Frame frame = new Frame();
+            long[] index = {0};
+            double bytes = report("end to end (" + method + ")", frames.size(), i -> {
+                frames.get(i).copyTo(frame.image);
+                frame.index = ++index[0];
+            }, i -> {
+                session.subtractBackground(frame);
+                session.analyse(frame);
+            });
+            session.finish();
+            if (method.equals(checked) && bytes > budget)
+                isWithinBudget = false;
+        }
+
+        if (!isWithinBudget) {
+            System.out.println("The analysis with " + checked + " allocates more than " + budget + " bytes per frame");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the operation once over all frames to warm up, then {@link Benchmark#ROUNDS} times while counting the
+     * bytes allocated by the operation, not by its preparation.
+     *
+     * @return the bytes per frame
+     */
+    private static double report(String name, int inputs, IntConsumer prepare, IntConsumer operation) {
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < inputs; i++) {
+            prepare.accept(i);
+            operation.accept(i);
+        }
+        long allocated = 0;
+        for (int round = 0; round < Benchmark.ROUNDS; round++) {
+            for (int i = 0; i < inputs; i++) {
+                prepare.accept(i);
+                long before = THREADS.getThreadAllocatedBytes(thread);
+                operation.accept(i);
+                allocated += THREADS.getThreadAllocatedBytes(thread) - before;
+            }
+        }
+        double bytes = (double) allocated / (Benchmark.ROUNDS * inputs);
+        System.out.printf("%-44s %16.1f%n", name, bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,88 @@
+import org.opencv.core.Core;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A minimal measuring harness for the benchmarks: every operation is run once over all inputs to warm up,
+ * then {@link #ROUNDS} times with each call timed on its own. The preparation of a call is not timed.
+ */
+final class Benchmark {
+    static final int ROUNDS = 3;
+
+    private Benchmark() {
+    }
+
+    static void loadLibrary() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    /**
+     * @return results which are not kept anywhere, so that they do not take part in the measurement
+     */
+    static ResultsSink discardingResults() {
+        return new ResultsSink() {
+            @Override
+            public void addVehicle(int lane, int row, String vehicleType, double timeInSec) {
+            }
+
+            @Override
+            public void addSpeed(int lane, int row, String vehicleType, double speed, double timeInSec) {
+            }
+
+            @Override
+            public void takeBack(int lane, int row, String vehicleType, double countedInSec, double timeInSec) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    static void header() {
+        System.out.printf("%-44s %12s %12s %12s%n", "Benchmark", "mean [us]", "p90 [us]", "ops/s");
+    }
+
+    static void measure(String name, int inputs, IntConsumer operation) {
+        measure(name, inputs, null, operation, 1);
+    }
+
+    /**
+     * @param prepare      called before every timed call, may be null
+     * @param operationsPerCall how many operations one call performs, to report the time of a single one
+     * @return the mean time of one operation in microseconds
+     */
+    static double measure(String name, int inputs, IntConsumer prepare, IntConsumer operation, int operationsPerCall) {
+        if (inputs == 0) {
+            System.out.printf("%-44s %12s%n", name, "no input");
+            return 0;
+        }
+        for (int i = 0; i < inputs; i++) {
+            if (prepare != null)
+                prepare.accept(i);
+            operation.accept(i);
+        }
+
+        long[] samples = new long[ROUNDS * inputs];
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < inputs; i++) {
+                if (prepare != null)
+                    prepare.accept(i);
+                long start = System.nanoTime();
+                operation.accept(i);
+                samples[round * inputs + i] = System.nanoTime() - start;
+            }
+        }
+
+        long total = 0;
+        for (long sample : samples) {
+            total += sample;
+        }
+        Arrays.sort(samples);
+        double mean = total / 1e3 / samples.length / operationsPerCall;
+        double p90 = samples[(int) (samples.length * 0.9)] / 1e3 / operationsPerCall;
+        System.out.printf("%-44s %12.3f %12.3f %12.0f%n", name, mean, p90, 1e6 / mean);
+        return mean;
+    }
+}
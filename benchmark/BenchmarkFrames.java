@@ -0,0 +1,86 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The input frames of the benchmarks, either the first frames of a video or a generated scene: a noisy road
+ * in 1280x720 with vehicles of three sizes driving down across the default lines.
+ */
+final class BenchmarkFrames {
+    static final Size SYNTHETIC_SIZE = new Size(1280, 720);
+    /**
+     * Lines in the 640x360 view which the synthetic vehicles cross. Slightly slanted, so the general case of
+     * {@link CheckCrossLine} is measured.
+     */
+    static final Point[] COUNTING_LINE = {new Point(100, 200), new Point(540, 204)};
+    static final Point[] SPEED_LINE = {new Point(100, 260), new Point(540, 264)};
+
+    private static final int[][] VEHICLES = {
+            // lane x, width, height, first frame, pixels per frame (all in 1280x720)
+            {300, 90, 140, 0, 12},
+            {560, 120, 220, 40, 10},
+            {820, 160, 360, 90, 8},
+            {420, 90, 140, 150, 14},
+            {700, 120, 220, 200, 9},
+    };
+
+    private BenchmarkFrames() {
+    }
+
+    static List<Mat> fromVideo(String video, int count) {
+        VideoCapture capture = new VideoCapture(video);
+        if (!capture.isOpened())
+            throw new IllegalArgumentException("Couldn't open video: " + video);
+
+        List<Mat> frames = new ArrayList<>();
+        Mat frame = new Mat();
+        while (frames.size() < count && capture.read(frame)) {
+            frames.add(frame.clone());
+        }
+        capture.release();
+        return frames;
+    }
+
+    static List<Mat> synthetic(int count) {
+        Mat road = new Mat(SYNTHETIC_SIZE, CvType.CV_8UC3, new Scalar(90, 90, 90));
+        Imgproc.rectangle(road, new Point(250, 0), new Point(1030, 720), new Scalar(60, 60, 60), -1);
+        Mat noise = new Mat(SYNTHETIC_SIZE, CvType.CV_8UC3);
+
+        List<Mat> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Mat frame = road.clone();
+            for (int[] vehicle : VEHICLES) {
+                if (i < vehicle[3])
+                    continue;
+                // every vehicle comes again after 120 frames
+                int y = (i - vehicle[3]) % 120 * vehicle[4] - vehicle[2];
+                Imgproc.rectangle(frame, new Point(vehicle[0], y), new Point(vehicle[0] + vehicle[1], y + vehicle[2]),
+                        new Scalar(30 + vehicle[1], 40, 200 - vehicle[1]), -1);
+            }
+            Core.randn(noise, 8, 6);
+            Core.add(frame, noise, frame);
+            frames.add(frame);
+        }
+        noise.release();
+        road.release();
+        return frames;
+    }
+
+    static List<Mat> resize(List<Mat> frames, Size size) {
+        List<Mat> resized = new ArrayList<>();
+        for (Mat frame : frames) {
+            Mat target = new Mat();
+            Imgproc.resize(frame, target, size);
+            resized.add(target);
+        }
+        return resized;
+    }
+}
@@ -0,0 +1,142 @@
+import jxl.write.WriteException;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Compares the {@link MaskFilterChain}s on a video: the cost of the filter alone, measured on the recorded
+ * masks of the first frames, and the counts of a whole analysis with every filter against the default one.
+ * <p>
+ * Usage: MaskFilterBenchmark &lt;config.properties&gt; &lt;video&gt; [filter ...]
+ * <br>The lines and thresholds are taken from the configuration, as in the batch mode.
+ */
+public class MaskFilterBenchmark {
+    static {
+        Benchmark.loadLibrary();
+    }
+
+    private static final String[] FILTERS = {"bilateral", "none", "median:5", "open:3,close:5", "median:5,close:5"};
+    private static final int RECORDED_FRAMES = 300;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException, WriteException {
+        if (args.length < 2) {
+            System.err.println("Usage: MaskFilterBenchmark <config.properties> <video> [filter ...]");
+            System.exit(1);
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(args[0])) {
+            properties.load(in);
+        }
+        String video = args[1];
+        String[] filters = FILTERS;
+        if (args.length > 2) {
+            filters = new String[args.length - 2];
+            System.arraycopy(args, 2, filters, 0, filters.length);
+        }
+
+        List<Mat> masks = recordMasks(AnalysisConfig.fromProperties(properties), video);
+        System.out.println("Filter cost on " + masks.size() + " masks:");
+        for (String filter : filters) {
+            double millis = filterCost(new MaskFilterChain(filter), masks);
+            System.out.printf("  %-20s %8.3f ms/frame %10.1f fps%n", filter, millis, 1000 / millis);
+        }
+
+        System.out.println("Counts of the whole video:");
+        Map<String, Integer> reference = null;
+        for (String filter : filters) {
+            AnalysisConfig config = AnalysisConfig.fromProperties(properties);
+            config.setMaskFilter(filter);
+            long start = System.nanoTime();
+            Map<String, Integer> counts = analyse(config, video);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (reference == null)
+                reference = counts;
+            System.out.printf("  %-20s %s, %d differences to %s, %.1f s%n", filter, counts,
+                    difference(reference, counts), filters[0], seconds);
+        }
+    }
+
+    private static List<Mat> recordMasks(AnalysisConfig config, String video) {
+        VideoCapture capture = open(video);
+        Size size = config.analysisSizeOf(capture);
+        VideoProcessor processor = VideoProcessor.create(config.getEngine(), config.getImageThreshold(), config.getHistory());
+        Frame frame = new Frame();
+        List<Mat> masks = new ArrayList<>();
+        while (masks.size() < RECORDED_FRAMES && frame.read(capture, size, masks.size() + 1)) {
+            masks.add(processor.process(frame.getImage()).clone());
+        }
+        capture.release();
+        return masks;
+    }
+
+    private static double filterCost(MaskFilter filter, List<Mat> masks) {
+        Mat output = new Mat();
+        for (Mat mask : masks) {
+            filter.apply(mask, output);
+        }
+
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (Mat mask : masks) {
+                filter.apply(mask, output);
+            }
+        }
+        return (System.nanoTime() - start) / 1e6 / (ROUNDS * masks.size());
+    }
+
+    private static Map<String, Integer> analyse(AnalysisConfig config, String video) throws IOException, WriteException {
+        VideoCapture capture = open(video);
+        final Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("Car", 0);
+        counts.put("Van", 0);
+        counts.put("Lorry", 0);
+
+        File directory = Files.createTempDirectory("maskfilter").toFile();
+        ResultsWriter results = new ResultsWriter(directory, config.isExcelToWrite(), ResultsWriter.namesOf(config.getLanes()));
+        AnalysisSession session = new AnalysisSession(config, capture.get(Videoio.CAP_PROP_FPS), config.analysisSizeOf(capture),
+                results, new AnalysisListener() {
+            @Override
+            public void vehicleCounted(String vehicleType, int amount) {
+                counts.put(vehicleType, amount);
+            }
+        });
+
+        Frame frame = new Frame();
+        long index = 0;
+        while (frame.read(capture, config.getAnalysisSize(), ++index)) {
+            session.subtractBackground(frame);
+            session.analyse(frame);
+        }
+        session.finish();
+        capture.release();
+        return counts;
+    }
+
+    private static int difference(Map<String, Integer> reference, Map<String, Integer> counts) {
+        int difference = 0;
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            difference += Math.abs(count.getValue() - reference.get(count.getKey()));
+        }
+        return difference;
+    }
+
+    private static VideoCapture open(String video) {
+        VideoCapture capture = new VideoCapture(video);
+        if (!capture.isOpened())
+            throw new IllegalArgumentException("Couldn't open video: " + video);
+        return capture;
+    }
+}
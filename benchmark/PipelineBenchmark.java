@@ -0,0 +1,88 @@
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoCapture;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the frames per second of the whole analysis of a video in a single loop, as the window did before
+ * the {@link FramePipeline}, with the pipeline of the window: decoding, background subtraction, counting and
+ * conversion for the display, in the same order and with the same work per frame.
+ * <p>
+ * Usage: PipelineBenchmark video [config.properties]
+ */
+public class PipelineBenchmark {
+    static {
+        Benchmark.loadLibrary();
+    }
+
+    private static final int CAPACITY = 8;
+    private static int sink;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1)
+            throw new IllegalArgumentException("Usage: PipelineBenchmark video [config.properties]");
+        String video = args[0];
+        AnalysisConfig config = args.length > 1 ? StageBenchmark.loadConfig(args[1]) : StageBenchmark.syntheticConfig();
+
+        // the first run of each warms up
+        sequential(video, config);
+        double sequential = sequential(video, config);
+        pipelined(video, config);
+        double pipelined = pipelined(video, config);
+
+        System.out.printf("%-44s %12.1f fps%n", "single loop", sequential);
+        System.out.printf("%-44s %12.1f fps%n", "FramePipeline (" + CAPACITY + " slots)", pipelined);
+        System.out.printf("%-44s %12.2fx%n", "speed-up", pipelined / sequential);
+        System.out.println("(" + sink + ")");
+    }
+
+    private static double sequential(String video, AnalysisConfig config) {
+        VideoCapture capture = new VideoCapture(video);
+        AnalysisSession session = session(config, capture);
+        ImageProcessor imageProcessor = new ImageProcessor();
+        Frame frame = new Frame();
+        long index = 0;
+        long start = System.nanoTime();
+        while (frame.read(capture, config.getAnalysisSize(), ++index)) {
+            session.subtractBackground(frame);
+            session.analyse(frame);
+            sink += imageProcessor.toBufferedImage(frame.getImage()).getWidth();
+        }
+        double fps = (index - 1) / ((System.nanoTime() - start) / 1e9);
+        capture.release();
+        session.finish();
+        return fps;
+    }
+
+    private static double pipelined(String video, AnalysisConfig config) throws InterruptedException {
+        VideoCapture capture = new VideoCapture(video);
+        AnalysisSession session = session(config, capture);
+        ImageProcessor imageProcessor = new ImageProcessor();
+        CountDownLatch finished = new CountDownLatch(1);
+        long[] frames = {0};
+        FramePipeline pipeline = new FramePipeline(capture, config.getAnalysisSize(), CAPACITY, FramePipeline.Backpressure.BLOCK)
+                .addStage("subtraction", session::subtractBackground)
+                .addStage("counting", session::analyse)
+                .addStage("rendering", frame -> {
+                    sink += imageProcessor.toBufferedImage(frame.getImage()).getWidth();
+                    frames[0]++;
+                })
+                .onFinish(finished::countDown);
+        long start = System.nanoTime();
+        pipeline.start();
+        finished.await();
+        double fps = frames[0] / ((System.nanoTime() - start) / 1e9);
+        pipeline.stop();
+        capture.release();
+        session.finish();
+        return fps;
+    }
+
+    private static AnalysisSession session(AnalysisConfig config, VideoCapture capture) {
+        if (!capture.isOpened())
+            throw new IllegalArgumentException("Couldn't open the video");
+        Size size = config.analysisSizeOf(capture);
+        return new AnalysisSession(config, 25, size, Benchmark.discardingResults(), new AnalysisListener() {
+        });
+    }
+}
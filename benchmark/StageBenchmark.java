@@ -0,0 +1,196 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoCapture;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Measures every stage of the frame processing on its own and the whole analysis in frames per second.
+ * <p>
+ * Usage: StageBenchmark [video [config.properties]]
+ * <br>Without a video the frames are generated ({@link BenchmarkFrames#synthetic(int)}); without a configuration
+ * the lines of the generated scene are used. -Dframes=N sets the number of frames, 300 by default.
+ */
+public class StageBenchmark {
+    static {
+        Benchmark.loadLibrary();
+    }
+
+    private static final int BOXES = 10000;
+    private static int sink;
+
+    public static void main(String[] args) throws Exception {
+        int count = Integer.getInteger("frames", 300);
+        String video = args.length > 0 ? args[0] : null;
+        AnalysisConfig config = args.length > 1 ? loadConfig(args[1]) : syntheticConfig();
+
+        List<Mat> raw = video != null ? BenchmarkFrames.fromVideo(video, count) : BenchmarkFrames.synthetic(count);
+        if (raw.isEmpty())
+            throw new IllegalArgumentException("No frames in " + video);
+        Size rawSize = raw.get(0).size();
+        Size size = config.getAnalysisSize() != null ? config.getAnalysisSize() : rawSize;
+        List<Mat> frames = BenchmarkFrames.resize(raw, size);
+        int n = frames.size();
+
+        System.out.println((video != null ? video : "synthetic scene") + ", " + n + " frames of " + rawSize + " analysed in " + size);
+        Benchmark.header();
+
+        if (video != null) {
+            VideoCapture capture = new VideoCapture();
+            Mat read = new Mat();
+            Benchmark.measure("VideoCapture.read", n, i -> {
+                if (i == 0) {
+                    capture.release();
+                    capture.open(video);
+                }
+            }, i -> capture.read(read), 1);
+            capture.release();
+        }
+
+        Mat resized = new Mat();
+        Benchmark.measure("Imgproc.resize " + rawSize + " -> " + size, n, i -> Imgproc.resize(raw.get(i), resized, size));
+
+        for (String engine : VideoProcessor.ENGINES) {
+            VideoProcessor processor = VideoProcessor.create(engine, config.getImageThreshold(), config.getHistory());
+            Benchmark.measure("VideoProcessor.process (" + engine + ")", n, i -> processor.process(frames.get(i)));
+        }
+
+        VideoProcessor mog = VideoProcessor.create("mog2", config.getImageThreshold(), config.getHistory());
+        List<Mat> masks = new ArrayList<>();
+        for (Mat frame : frames) {
+            masks.add(mog.process(frame).clone());
+        }
+        Mat filtered = new Mat();
+        Benchmark.measure("Imgproc.bilateralFilter", n, i -> Imgproc.bilateralFilter(masks.get(i), filtered, 2, 1600, 400));
+
+        MaskFilter maskFilter = new MaskFilterChain(config.getMaskFilter());
+        List<Mat> foregrounds = new ArrayList<>();
+        for (Mat mask : masks) {
+            Mat foreground = new Mat();
+            maskFilter.apply(mask, foreground);
+            foregrounds.add(foreground);
+        }
+
+        FrameGeometry geometry = new FrameGeometry(config, size);
+        CountVehicles countVehicles = new CountVehicles(geometry.scaleArea(config.getAreaThreshold()),
+                geometry.scaleArea(config.getVehicleSizeThreshold()));
+        countVehicles.setLanes(geometry.countingLines, geometry.speedLines);
+        Mat canvas = new Mat();
+        Mat binary = new Mat();
+        // findContours modifies its input, so both images are copied before every call
+        Benchmark.measure("CountVehicles.findAndDrawContours", n, i -> {
+            frames.get(i).copyTo(canvas);
+            foregrounds.get(i).copyTo(binary);
+        }, i -> countVehicles.findAndDrawContours(canvas, binary), 1);
+        FeatureTable table = new FeatureTable();
+        double minArea = geometry.scaleArea(config.getAreaThreshold());
+        for (String method : FeatureExtractor.METHODS) {
+            FeatureExtractor extractor = FeatureExtractor.create(method);
+            Benchmark.measure("FeatureExtractor.extract (" + method + ")", n, i -> foregrounds.get(i).copyTo(binary),
+                    i -> {
+                        extractor.extract(binary, null, minArea, table);
+                        sink += table.size();
+                    }, 1);
+        }
+        LineIndex countingIndex = new LineIndex(geometry.countingLines, (int) size.width, (int) size.height);
+        LineIndex speedIndex = new LineIndex(geometry.speedLines, (int) size.width, (int) size.height);
+        VehicleTracker tracker = new VehicleTracker(geometry.lanes.size(), (int) size.width, (int) size.height, (int) (size.width / 8), 5);
+        Benchmark.measure("LineIndex.cross + VehicleTracker.update", n, i -> {
+            frames.get(i).copyTo(canvas);
+            foregrounds.get(i).copyTo(binary);
+            countVehicles.findAndDrawContours(canvas, binary);
+        }, i -> {
+            int[] boxes = countVehicles.getBoxes();
+            int boxCount = countVehicles.getBoxCount();
+            tracker.update(boxes, countVehicles.getAreas(), boxCount, countingIndex.cross(boxes, boxCount), speedIndex.cross(boxes, boxCount));
+            sink += tracker.getCounted().size();
+        }, 1);
+
+        int[] boxes = randomBoxes(size);
+        CheckCrossLine line = new CheckCrossLine(geometry.countingLines[0][0], geometry.countingLines[0][1]);
+        Benchmark.measure("CheckCrossLine.rectContainLine", 100, null, i -> {
+            for (int b = 0; b < boxes.length; b += 4) {
+                if (line.rectContainLine(boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3]))
+                    sink++;
+            }
+        }, BOXES);
+
+        int[] all = new int[BOXES];
+        for (int b = 0; b < BOXES; b++) {
+            all[b] = b;
+        }
+        long[] crossing = new long[(BOXES + 63) >> 6];
+        Benchmark.measure("CheckCrossLine.rectsContainLine", 100, null, i -> sink += line.rectsContainLine(boxes, all, BOXES, crossing), BOXES);
+
+        ImageProcessor imageProcessor = new ImageProcessor();
+        Benchmark.measure("ImageProcessor.toBufferedImage", n, i -> sink += imageProcessor.toBufferedImage(frames.get(i)).getWidth());
+
+        File directory = Files.createTempDirectory("stagebenchmark").toFile();
+        AnalysisSession session = new AnalysisSession(config, 25, size, new ResultsWriter(directory, config.isExcelToWrite(), ResultsWriter.namesOf(config.getLanes())),
+                new AnalysisListener() {
+                });
+        Frame frame = new Frame();
+        long[] index = {0};
+        Benchmark.measure("end to end (subtraction + counting)", n, i -> {
+            frames.get(i).copyTo(frame.image);
+            frame.index = ++index[0];
+        }, i -> {
+            session.subtractBackground(frame);
+            session.analyse(frame);
+        }, 1);
+
+        if (video != null) {
+            VideoCapture capture = new VideoCapture();
+            Benchmark.measure("end to end (decoding + resize + analysis)", n, i -> {
+                if (i == 0) {
+                    capture.release();
+                    capture.open(video);
+                }
+            }, i -> {
+                if (frame.read(capture, config.getAnalysisSize(), ++index[0])) {
+                    session.subtractBackground(frame);
+                    session.analyse(frame);
+                }
+            }, 1);
+            capture.release();
+        }
+        session.finish();
+
+        System.out.println("(" + sink + ")");
+    }
+
+    private static int[] randomBoxes(Size size) {
+        Random random = new Random(1);
+        int[] boxes = new int[BOXES * 4];
+        for (int b = 0; b < boxes.length; b += 4) {
+            boxes[b + 2] = 20 + random.nextInt((int) size.width / 4);
+            boxes[b + 3] = 20 + random.nextInt((int) size.height / 4);
+            boxes[b] = random.nextInt((int) size.width - boxes[b + 2]);
+            boxes[b + 1] = random.nextInt((int) size.height - boxes[b + 3]);
+        }
+        return boxes;
+    }
+
+    static AnalysisConfig loadConfig(String file) throws Exception {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        return AnalysisConfig.fromProperties(properties);
+    }
+
+    static AnalysisConfig syntheticConfig() {
+        AnalysisConfig config = new AnalysisConfig();
+        config.setCountingLine(BenchmarkFrames.COUNTING_LINE[0], BenchmarkFrames.COUNTING_LINE[1]);
+        config.setSpeedLine(BenchmarkFrames.SPEED_LINE[0], BenchmarkFrames.SPEED_LINE[1]);
+        return config;
+    }
+}
@@ -0,0 +1,547 @@
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Parameters of one analysis run. The GUI edits them through its spinners, the batch mode reads them from a
+ * properties file (see {@link #fromProperties(Properties)}).
+ */
+public class AnalysisConfig {
+    /**
+     * The size of the view. The lines, the region of interest and the thresholds are given in this size.
+     */
+    public static final Size FRAME_SIZE = new Size(640, 360);
+
+    private int areaThreshold = 1700;
+    private double imageThreshold = 20;
+    private int history = 1500;
+    private int vehicleSizeThreshold = 20000;
+    private double distanceCS = 6.0;
+    private boolean isExcelToWrite = true;
+    private int[] intervals = {1, 5, 15, 60};
+    private String videoFile = "Video.avi";
+    private String videoCodec = "PIM1";
+    private Size videoSize;
+    private int videoStep = 1;
+    private boolean isClipsToWrite = false;
+    private double clipPreRoll = 5;
+    private double clipPostRoll = 5;
+    private double clipSpeed = 0;
+    private int clipQuality = 80;
+    private String clipCodec = "MJPG";
+    private Size analysisSize = FRAME_SIZE;
+    private String engine = "mog2";
+    private String maskFilter = MaskFilterChain.DEFAULT;
+    private String features = "components";
+    private int decimation = 1;
+    private int decimationMargin = 60;
+
+    private volatile Point lineCount1;
+    private volatile Point lineCount2;
+    private volatile Point lineSpeed1;
+    private volatile Point lineSpeed2;
+    private List<Lane> namedLanes;
+    private volatile List<Lane> lanes = Collections.emptyList();
+
+    private boolean isRoiAuto = false;
+    private Rect roiBox;
+    private int roiPadding = 100;
+    private volatile Rect regionOfInterest;
+
+    public static AnalysisConfig fromProperties(Properties properties) {
+        AnalysisConfig config = new AnalysisConfig();
+        config.areaThreshold = Integer.parseInt(properties.getProperty("areaThreshold", String.valueOf(config.areaThreshold)).trim());
+        config.imageThreshold = Double.parseDouble(properties.getProperty("imageThreshold", String.valueOf(config.imageThreshold)).trim());
+        config.history = Integer.parseInt(properties.getProperty("history", String.valueOf(config.history)).trim());
+        config.vehicleSizeThreshold = Integer.parseInt(properties.getProperty("vehicleSizeThreshold", String.valueOf(config.vehicleSizeThreshold)).trim());
+        config.distanceCS = Double.parseDouble(properties.getProperty("distance", String.valueOf(config.distanceCS)).trim());
+        config.isExcelToWrite = !"CSV".equalsIgnoreCase(properties.getProperty("results", "XLS").trim());
+        config.intervals = parseIntervals(properties.getProperty("intervals", "1,5,15,60").trim());
+        config.videoFile = properties.getProperty("videoFile", config.videoFile).trim();
+        config.videoCodec = properties.getProperty("videoCodec", config.videoCodec).trim();
+        String videoSize = properties.getProperty("videoSize", "").trim();
+        config.videoSize = videoSize.isEmpty() ? null : parseSize(videoSize);
+        config.videoStep = Integer.parseInt(properties.getProperty("videoStep", String.valueOf(config.videoStep)).trim());
+        config.isClipsToWrite = Boolean.parseBoolean(properties.getProperty("clips", "false").trim());
+        config.clipPreRoll = Double.parseDouble(properties.getProperty("clipPreRoll", String.valueOf(config.clipPreRoll)).trim());
+        config.clipPostRoll = Double.parseDouble(properties.getProperty("clipPostRoll", String.valueOf(config.clipPostRoll)).trim());
+        config.clipSpeed = Double.parseDouble(properties.getProperty("clipSpeed", String.valueOf(config.clipSpeed)).trim());
+        config.clipQuality = Integer.parseInt(properties.getProperty("clipQuality", String.valueOf(config.clipQuality)).trim());
+        config.clipCodec = properties.getProperty("clipCodec", config.clipCodec).trim();
+        config.analysisSize = parseSize(properties.getProperty("analysisSize", "640x360").trim());
+        config.engine = properties.getProperty("engine", config.engine).trim();
+        config.maskFilter = properties.getProperty("maskFilter", config.maskFilter).trim();
+        config.features = properties.getProperty("features", config.features).trim();
+        config.decimation = Integer.parseInt(properties.getProperty("decimation", String.valueOf(config.decimation)).trim());
+        config.decimationMargin = Integer.parseInt(properties.getProperty("decimationMargin", String.valueOf(config.decimationMargin)).trim());
+
+        String laneNames = properties.getProperty("lanes");
+        if (laneNames == null) {
+            Point[] countingLine = parseLine(properties, "countingLine");
+            config.setCountingLine(countingLine[0], countingLine[1]);
+            Point[] speedLine = parseLine(properties, "speedLine");
+            config.setSpeedLine(speedLine[0], speedLine[1]);
+        } else {
+            List<Lane> lanes = new ArrayList<>();
+            for (String name : laneNames.split(",")) {
+                name = name.trim();
+                if (name.isEmpty())
+                    continue;
+                Point[] countingLine = parseLine(properties, "lane." + name + ".countingLine");
+                Point[] speedLine = parseLine(properties, "lane." + name + ".speedLine");
+                double distance = Double.parseDouble(properties.getProperty("lane." + name + ".distance",
+                        String.valueOf(config.distanceCS)).trim());
+                lanes.add(new Lane(name, countingLine[0], countingLine[1], speedLine[0], speedLine[1], distance));
+            }
+            config.setLanes(lanes);
+        }
+
+        config.roiPadding = Integer.parseInt(properties.getProperty("roiPadding", String.valueOf(config.roiPadding)).trim());
+        String roi = properties.getProperty("roi", "off").trim();
+        if (roi.equalsIgnoreCase("auto")) {
+            config.setRoiAuto(true);
+        } else if (!roi.equalsIgnoreCase("off")) {
+            String[] box = roi.split(",");
+            if (box.length != 4)
+                throw new IllegalArgumentException("\"roi\" must be off, auto or x,y,width,height");
+            config.setRoiBox(new Rect(Integer.parseInt(box[0].trim()), Integer.parseInt(box[1].trim()),
+                    Integer.parseInt(box[2].trim()), Integer.parseInt(box[3].trim())));
+        }
+        return config;
+    }
+
+    /**
+     * Parses a line given as "x1,y1,x2,y2" in the 640x360 frame coordinates.
+     */
+    static Point[] parseLine(Properties properties, String key) {
+        String value = properties.getProperty(key);
+        if (value == null)
+            throw new IllegalArgumentException("Missing \"" + key + "\" in the configuration");
+
+        String[] coordinates = value.split(",");
+        if (coordinates.length != 4)
+            throw new IllegalArgumentException("\"" + key + "\" must be given as x1,y1,x2,y2");
+
+        double[] c = new double[4];
+        for (int i = 0; i < 4; i++) {
+            c[i] = Double.parseDouble(coordinates[i].trim());
+        }
+        return new Point[]{new Point(c[0], c[1]), new Point(c[2], c[3])};
+    }
+
+    /**
+     * Parses a comma separated list of minutes; an empty list or "none" gives no intervals.
+     */
+    static int[] parseIntervals(String value) {
+        if (value.isEmpty() || value.equalsIgnoreCase("none"))
+            return new int[0];
+
+        String[] minutes = value.split(",");
+        int[] intervals = new int[minutes.length];
+        for (int i = 0; i < minutes.length; i++) {
+            intervals[i] = Integer.parseInt(minutes[i].trim());
+            if (intervals[i] <= 0)
+                throw new IllegalArgumentException("An interval must be a positive number of minutes, not \"" + value + "\"");
+        }
+        return intervals;
+    }
+
+    /**
+     * Parses a size given as "WIDTHxHEIGHT"; "native" stands for the size of the video.
+     */
+    static Size parseSize(String value) {
+        if (value.equalsIgnoreCase("native"))
+            return null;
+
+        String[] dimensions = value.toLowerCase().split("x");
+        if (dimensions.length != 2)
+            throw new IllegalArgumentException("A size must be given as WIDTHxHEIGHT or native, not \"" + value + "\"");
+        return new Size(Integer.parseInt(dimensions[0].trim()), Integer.parseInt(dimensions[1].trim()));
+    }
+
+    public int getAreaThreshold() {
+        return areaThreshold;
+    }
+
+    public void setAreaThreshold(int areaThreshold) {
+        this.areaThreshold = areaThreshold;
+    }
+
+    public double getImageThreshold() {
+        return imageThreshold;
+    }
+
+    public void setImageThreshold(double imageThreshold) {
+        this.imageThreshold = imageThreshold;
+    }
+
+    public int getHistory() {
+        return history;
+    }
+
+    public void setHistory(int history) {
+        this.history = history;
+    }
+
+    public int getVehicleSizeThreshold() {
+        return vehicleSizeThreshold;
+    }
+
+    public void setVehicleSizeThreshold(int vehicleSizeThreshold) {
+        this.vehicleSizeThreshold = vehicleSizeThreshold;
+    }
+
+    public double getDistanceCS() {
+        return distanceCS;
+    }
+
+    public void setDistanceCS(double distanceCS) {
+        this.distanceCS = distanceCS;
+        updateLanes();
+    }
+
+    public boolean isExcelToWrite() {
+        return isExcelToWrite;
+    }
+
+    public void setExcelToWrite(boolean isExcelToWrite) {
+        this.isExcelToWrite = isExcelToWrite;
+    }
+
+    /**
+     * @return the name of the annotated video in the output directory
+     */
+    public String getVideoFile() {
+        return videoFile;
+    }
+
+    public void setVideoFile(String videoFile) {
+        this.videoFile = videoFile;
+    }
+
+    /**
+     * @return the four characters of the codec of the annotated video
+     */
+    public String getVideoCodec() {
+        return videoCodec;
+    }
+
+    public void setVideoCodec(String videoCodec) {
+        this.videoCodec = videoCodec;
+    }
+
+    /**
+     * @return the size of the annotated video, null for the size the frames are analysed in
+     */
+    public Size getVideoSize() {
+        return videoSize;
+    }
+
+    public void setVideoSize(Size videoSize) {
+        this.videoSize = videoSize;
+    }
+
+    /**
+     * @return write only every n-th analysed frame to the annotated video
+     */
+    public int getVideoStep() {
+        return videoStep;
+    }
+
+    public void setVideoStep(int videoStep) {
+        this.videoStep = videoStep;
+    }
+
+    /**
+     * Creates the encoder of the annotated video in the directory.
+     */
+    public VideoEncoder createVideoEncoder(File directory, double fps, VideoCapture capture) throws IOException {
+        Size size = videoSize != null ? videoSize : analysisSizeOf(capture);
+        return new VideoEncoder(new File(directory, videoFile), videoCodec, fps, size, videoStep);
+    }
+
+    /**
+     * @return true when clips around the events are written, see {@link ClipRecorder}
+     */
+    public boolean isClipsToWrite() {
+        return isClipsToWrite;
+    }
+
+    public void setClipsToWrite(boolean clipsToWrite) {
+        isClipsToWrite = clipsToWrite;
+    }
+
+    /**
+     * @return the seconds of a clip before its first event
+     */
+    public double getClipPreRoll() {
+        return clipPreRoll;
+    }
+
+    public void setClipPreRoll(double clipPreRoll) {
+        this.clipPreRoll = clipPreRoll;
+    }
+
+    /**
+     * @return the seconds of a clip after its last event
+     */
+    public double getClipPostRoll() {
+        return clipPostRoll;
+    }
+
+    public void setClipPostRoll(double clipPostRoll) {
+        this.clipPostRoll = clipPostRoll;
+    }
+
+    /**
+     * @return the speed in km/h above which a measured vehicle starts a clip; 0 for a clip of every counted vehicle
+     */
+    public double getClipSpeed() {
+        return clipSpeed;
+    }
+
+    public void setClipSpeed(double clipSpeed) {
+        this.clipSpeed = clipSpeed;
+    }
+
+    /**
+     * Creates the recorder of the clips in the directory.
+     */
+    public ClipRecorder createClipRecorder(File directory, double fps) {
+        return new ClipRecorder(directory, clipCodec, fps, clipPreRoll, clipPostRoll, clipQuality);
+    }
+
+    /**
+     * @return the lengths in minutes of the intervals summarized in "Summary.csv", see {@link IntervalAggregator}
+     */
+    public int[] getIntervals() {
+        return intervals;
+    }
+
+    public void setIntervals(int[] intervals) {
+        this.intervals = intervals;
+    }
+
+    /**
+     * @return the size the frames are analysed in, null for the native size of the video
+     */
+    public Size getAnalysisSize() {
+        return analysisSize;
+    }
+
+    public void setAnalysisSize(Size analysisSize) {
+        this.analysisSize = analysisSize;
+    }
+
+    /**
+     * @return the analysed size of the frames of the capture
+     */
+    public Size analysisSizeOf(VideoCapture capture) {
+        if (analysisSize != null)
+            return analysisSize;
+        return new Size(capture.get(Videoio.CAP_PROP_FRAME_WIDTH), capture.get(Videoio.CAP_PROP_FRAME_HEIGHT));
+    }
+
+    /**
+     * @return the background model, one of {@link VideoProcessor#ENGINES}
+     */
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return the cleanup of the foreground mask, see {@link MaskFilterChain}
+     */
+    public String getMaskFilter() {
+        return maskFilter;
+    }
+
+    public void setMaskFilter(String maskFilter) {
+        this.maskFilter = maskFilter;
+    }
+
+    /**
+     * @return how the vehicles are found in the foreground mask, see {@link FeatureExtractor#METHODS}
+     */
+    public String getFeatures() {
+        return features;
+    }
+
+    public void setFeatures(String features) {
+        this.features = features;
+    }
+
+    /**
+     * @return analyse only every n-th frame while no vehicle is near the lines; 1 analyses every frame
+     */
+    public int getDecimation() {
+        return decimation;
+    }
+
+    public void setDecimation(int decimation) {
+        this.decimation = decimation;
+    }
+
+    /**
+     * @return how close to the lines, in pixels of the 640x360 view, a contour makes every frame analysed again
+     */
+    public int getDecimationMargin() {
+        return decimationMargin;
+    }
+
+    public void setDecimationMargin(int decimationMargin) {
+        this.decimationMargin = decimationMargin;
+    }
+
+    public Point getLineCount1() {
+        return lineCount1;
+    }
+
+    public Point getLineCount2() {
+        return lineCount2;
+    }
+
+    public Point getLineSpeed1() {
+        return lineSpeed1;
+    }
+
+    public Point getLineSpeed2() {
+        return lineSpeed2;
+    }
+
+    public void setCountingLine(Point lineCount1, Point lineCount2) {
+        this.lineCount1 = lineCount1;
+        this.lineCount2 = lineCount2;
+        updateLanes();
+    }
+
+    public void setSpeedLine(Point lineSpeed1, Point lineSpeed2) {
+        this.lineSpeed1 = lineSpeed1;
+        this.lineSpeed2 = lineSpeed2;
+        updateLanes();
+    }
+
+    /**
+     * @param namedLanes the lanes to count, at most {@link LineIndex#MAX_LINES}; null to count the single lane
+     *                   of the counting and speed line
+     */
+    public void setLanes(List<Lane> namedLanes) {
+        if (namedLanes != null && namedLanes.size() > LineIndex.MAX_LINES)
+            throw new IllegalArgumentException("At most " + LineIndex.MAX_LINES + " lanes are supported");
+        this.namedLanes = namedLanes == null ? null : Collections.unmodifiableList(new ArrayList<>(namedLanes));
+        updateLanes();
+    }
+
+    /**
+     * @return the lanes to count. Without named lanes this is one lane made of the counting and speed line and
+     * the distance, or none while a line is missing. The same list is returned until a lane is changed.
+     */
+    public List<Lane> getLanes() {
+        return lanes;
+    }
+
+    private void updateLanes() {
+        if (namedLanes != null) {
+            lanes = namedLanes;
+        } else if (lineCount1 != null && lineCount2 != null && lineSpeed1 != null && lineSpeed2 != null) {
+            lanes = Collections.singletonList(new Lane(Lane.DEFAULT, lineCount1, lineCount2, lineSpeed1, lineSpeed2, distanceCS));
+        } else {
+            lanes = Collections.emptyList();
+        }
+        updateRegionOfInterest();
+    }
+
+    public boolean isRoiAuto() {
+        return isRoiAuto;
+    }
+
+    /**
+     * @param isRoiAuto analyse only the bounding box of the lines, enlarged by the padding
+     */
+    public void setRoiAuto(boolean isRoiAuto) {
+        this.isRoiAuto = isRoiAuto;
+        updateRegionOfInterest();
+    }
+
+    /**
+     * @param roiBox the part of the frame to analyse, or null. Takes precedence over the automatic region.
+     */
+    public void setRoiBox(Rect roiBox) {
+        this.roiBox = roiBox;
+        updateRegionOfInterest();
+    }
+
+    public int getRoiPadding() {
+        return roiPadding;
+    }
+
+    /**
+     * The padding must leave room for a whole vehicle around the lines, otherwise the clipped contours
+     * become smaller and the vehicles get classified as a smaller type.
+     */
+    public void setRoiPadding(int roiPadding) {
+        this.roiPadding = roiPadding;
+        updateRegionOfInterest();
+    }
+
+    /**
+     * @return the analysed part of the frame, or null when the whole frame is analysed
+     */
+    public Rect getRegionOfInterest() {
+        return regionOfInterest;
+    }
+
+    private void updateRegionOfInterest() {
+        if (roiBox != null) {
+            regionOfInterest = clip(roiBox.x, roiBox.y, roiBox.x + roiBox.width, roiBox.y + roiBox.height);
+        } else if (isRoiAuto && !lanes.isEmpty()) {
+            Rect bounds = boundsOfLanes(lanes);
+            regionOfInterest = clip(bounds.x - roiPadding, bounds.y - roiPadding,
+                    bounds.x + bounds.width + roiPadding, bounds.y + bounds.height + roiPadding);
+        } else {
+            regionOfInterest = null;
+        }
+    }
+
+    /**
+     * @return the bounding box of the lines of all lanes
+     */
+    static Rect boundsOfLanes(List<Lane> lanes) {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (Lane lane : lanes) {
+            for (Point point : lane.points()) {
+                minX = Math.min(minX, point.x);
+                minY = Math.min(minY, point.y);
+                maxX = Math.max(maxX, point.x);
+                maxY = Math.max(maxY, point.y);
+            }
+        }
+        return new Rect((int) minX, (int) minY, (int) maxX - (int) minX, (int) maxY - (int) minY);
+    }
+
+    private static Rect clip(int x1, int y1, int x2, int y2) {
+        x1 = Math.max(0, x1);
+        y1 = Math.max(0, y1);
+        x2 = Math.min((int) FRAME_SIZE.width, x2);
+        y2 = Math.min((int) FRAME_SIZE.height, y2);
+        if (x2 <= x1 || y2 <= y1)
+            return null;
+        return new Rect(x1, y1, x2 - x1, y2 - y1);
+    }
+}
@@ -0,0 +1,158 @@
+import org.opencv.core.Core;
+import org.opencv.videoio.VideoCapture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs any number of {@link AnalysisSession}s on one bounded pool of worker threads, so that many videos or cameras
+ * share the cores of one process. A stream does not own a thread: it analyses a few frames per turn and then goes to
+ * the back of the queue, and a live stream without a new frame waits outside the pool. The frames of one stream are
+ * analysed one after another, never concurrently.
+ * <p>
+ * OpenCV parallelizes some functions itself. With as many workers as cores that only oversubscribes them, so the
+ * OpenCV threads are limited to the cores left over per worker.
+ */
+public class AnalysisEngine {
+    private static final int FRAMES_PER_TURN = 8;
+    private static final long IDLE_MILLIS = 5;
+
+    private final ScheduledThreadPoolExecutor pool;
+
+    /**
+     * @param workers the number of threads analysing frames
+     */
+    public AnalysisEngine(int workers) {
+        workers = Math.max(1, workers);
+        this.pool = new ScheduledThreadPoolExecutor(workers);
+        int cores = Runtime.getRuntime().availableProcessors();
+        Core.setNumThreads(Math.max(1, cores / workers));
+    }
+
+    /**
+     * Analyses a video from the current position of the capture to its end, or until the counting window of the
+     * session has passed and no speed is pending. The capture is released and the session finished at the end.
+     *
+     * @param position the number of frames already read from the capture, so the next one is numbered position + 1
+     * @return completed with the session when it has been finished
+     */
+    public CompletableFuture<AnalysisSession> submit(VideoCapture capture, long position, AnalysisConfig config, AnalysisSession session) {
+        Stream stream = new Stream(capture, null, config, session);
+        stream.index = position;
+        pool.execute(() -> turn(stream));
+        return stream.future;
+    }
+
+    /**
+     * Analyses a live source until it ends. The engine starts and stops the source.
+     */
+    public CompletableFuture<AnalysisSession> submit(LiveSource source, AnalysisConfig config, AnalysisSession session) {
+        Stream stream = new Stream(null, source, config, session);
+        source.start();
+        pool.execute(() -> turn(stream));
+        return stream.future;
+    }
+
+    /**
+     * Stops the workers. A stream reschedules itself after every turn, so this may only be called when the futures
+     * of all the streams have completed.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void turn(Stream stream) {
+        try {
+            for (int i = 0; i < FRAMES_PER_TURN; i++) {
+                if (stream.source != null && !stream.source.isReady()) {
+                    pool.schedule(() -> turn(stream), IDLE_MILLIS, TimeUnit.MILLISECONDS);
+                    return;
+                }
+                if (!stream.step()) {
+                    stream.finish();
+                    return;
+                }
+            }
+            pool.execute(() -> turn(stream));
+        } catch (InterruptedException e) {
+            stream.finish();
+        } catch (RuntimeException e) {
+            // the results, the video and the clips are still closed, up to the failed frame
+            try {
+                try {
+                    stream.release();
+                } finally {
+                    stream.session.finish();
+                }
+            } catch (RuntimeException closing) {
+                e.addSuppressed(closing);
+            }
+            stream.future.completeExceptionally(e);
+        }
+    }
+
+    private static class Stream {
+        final VideoCapture capture;
+        final LiveSource source;
+        final AnalysisConfig config;
+        final AnalysisSession session;
+        final FrameDecimator decimator;
+        final Frame frame = new Frame();
+        final CompletableFuture<AnalysisSession> future = new CompletableFuture<>();
+        long index;
+
+        Stream(VideoCapture capture, LiveSource source, AnalysisConfig config, AnalysisSession session) {
+            this.capture = capture;
+            this.source = source;
+            this.config = config;
+            this.session = session;
+            this.decimator = session.getDecimator();
+        }
+
+        /**
+         * Reads and analyses the next frame.
+         *
+         * @return false at the end of the stream
+         */
+        boolean step() throws InterruptedException {
+            if (source != null) {
+                if (!source.next(frame, config.getAnalysisSize()))
+                    return false;
+                if (decimator != null && decimator.skip(frame.getIndex()))
+                    return true;
+            } else {
+                if (session.isWindowFinished())
+                    return false;
+                index++;
+                if (decimator != null && decimator.skip(index))
+                    return capture.grab();
+                if (!frame.read(capture, config.getAnalysisSize(), index))
+                    return false;
+            }
+            session.subtractBackground(frame);
+            session.analyse(frame);
+
+            PipelineMetrics metrics = session.getMetrics();
+            if (metrics != null) {
+                metrics.setFrameBufferBytes(frame.nativeBytes());
+                if (source != null)
+                    metrics.setDroppedFrames(source.getDroppedFrames());
+            }
+            return true;
+        }
+
+        void finish() {
+            release();
+            session.finish();
+            future.complete(session);
+        }
+
+        void release() {
+            if (source != null)
+                source.stop();
+            else
+                capture.release();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * Receives the statistics of an {@link AnalysisSession}. The methods are called from the analysing thread.
+ */
+public interface AnalysisListener {
+
+    default void vehicleCounted(String vehicleType, int amount) {
+    }
+
+    default void averageSpeedChanged(String vehicleType, double averageSpeed) {
+    }
+
+    default void timeChanged(double timeInSec) {
+    }
+
+    /**
+     * Like {@link #vehicleCounted(String, int)}, which reports the amount of all lanes, for a single lane.
+     */
+    default void laneVehicleCounted(String lane, String vehicleType, int amount) {
+    }
+
+    default void laneAverageSpeedChanged(String lane, String vehicleType, double averageSpeed) {
+    }
+}
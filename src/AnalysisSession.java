@@ -0,0 +1,407 @@
+import jxl.write.WriteException;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The state of analysing one video: background model, counters, pending speed measurements and results.
+ * It does not use any Swing class, so it runs in the GUI as well as in the batch mode.
+ */
+public class AnalysisSession {
+    private final AnalysisConfig config;
+    private final ResultsSink results;
+    private final AnalysisListener listener;
+    private final double videoFPS;
+    private final Size frameSize;
+
+    private VideoProcessor videoProcessor;
+    private final MaskFilter maskFilter;
+    private final CountVehicles countVehicles;
+    private final VehicleTracker tracker;
+    private FrameGeometry geometry;
+
+    private static final int PENDING_CAPACITY = 256;
+
+    private final List<String> laneNames;
+    private final int lanes;
+    private FrameGeometry indexedGeometry;
+    private LineIndex countingIndex;
+    private LineIndex speedIndex;
+
+    private long frameIndex;
+    private double frameTime;
+    private long windowStart = 0;
+    private long windowEnd = Long.MAX_VALUE;
+    private final FrameDecimator decimator;
+
+    // per lane
+    private final int[] counters;
+    private final PendingSpeedBuffer[] pending;
+    // per lane and vehicle type, the types indexed like CountVehicles.VEHICLE_TYPES
+    private final int[][] amounts;
+    private final double[][] sumSpeeds;
+    private final int[][] measuredSpeeds;
+
+    private double timeInSec;
+    private PipelineMetrics metrics;
+    private VideoEncoder encoder;
+    private ClipRecorder clipRecorder;
+    private long analysedFrames;
+    private long latencySum;
+    private long maxLatency;
+
+    /**
+     * @param frameSize the size of the analysed frames. The lines, the region of interest and the area thresholds
+     *                  of the configuration are given in the 640x360 view and are scaled to this size.
+     * @param results   has to have been created with the lanes of the configuration
+     */
+    public AnalysisSession(AnalysisConfig config, double videoFPS, Size frameSize, ResultsSink results, AnalysisListener listener) {
+        this.config = config;
+        this.videoFPS = videoFPS;
+        this.frameSize = frameSize;
+        this.results = results;
+        this.listener = listener;
+        this.videoProcessor = VideoProcessor.create(config.getEngine(), config.getImageThreshold(), config.getHistory());
+        this.maskFilter = new MaskFilterChain(config.getMaskFilter());
+        this.decimator = config.getDecimation() > 1 ? new FrameDecimator(config.getDecimation(), (int) Math.max(1, videoFPS)) : null;
+        this.geometry = new FrameGeometry(config, frameSize);
+        this.countVehicles = new CountVehicles(geometry.scaleArea(config.getAreaThreshold()), geometry.scaleArea(config.getVehicleSizeThreshold()));
+        countVehicles.setFeatureExtractor(FeatureExtractor.create(config.getFeatures()));
+
+        this.laneNames = ResultsWriter.namesOf(config.getLanes());
+        this.lanes = laneNames.size();
+        int types = CountVehicles.VEHICLE_TYPES.length;
+        this.counters = new int[lanes];
+        this.pending = new PendingSpeedBuffer[lanes];
+        for (int lane = 0; lane < lanes; lane++) {
+            pending[lane] = new PendingSpeedBuffer(PENDING_CAPACITY);
+        }
+        this.amounts = new int[lanes][types];
+        this.sumSpeeds = new double[lanes][types];
+        this.measuredSpeeds = new int[lanes][types];
+
+        // a vehicle moves less than an eighth of the frame width between two frames, and may be lost for a few frames
+        this.tracker = new VehicleTracker(lanes, (int) frameSize.width, (int) frameSize.height, (int) (frameSize.width / 8), 5);
+    }
+
+    /**
+     * Updates the background model with the frame. When a region of interest is configured only that part of
+     * the frame is processed and the foreground has the size of the region.
+     */
+    public void subtractBackground(Frame frame) {
+        if (!geometry.isCurrent(config))
+            geometry = new FrameGeometry(config, frameSize);
+        frame.geometry = geometry;
+
+        Mat input = geometry.region == null ? frame.getImage() : frame.getRegion(geometry.region);
+        long start = System.nanoTime();
+        Mat mask = videoProcessor.process(input);
+        long subtracted = System.nanoTime();
+        maskFilter.apply(mask, frame.getForeground());
+        if (metrics != null) {
+            if (frame.decodeNanos > 0)
+                metrics.record(PipelineMetrics.Stage.DECODE, frame.decodeNanos);
+            if (frame.resizeNanos > 0)
+                metrics.record(PipelineMetrics.Stage.RESIZE, frame.resizeNanos);
+            metrics.record(PipelineMetrics.Stage.SUBTRACTION, subtracted - start);
+            metrics.record(PipelineMetrics.Stage.FILTER, System.nanoTime() - subtracted);
+        }
+    }
+
+    /**
+     * Counts the vehicles of a frame which has passed {@link #subtractBackground(Frame)}, using the lines the
+     * background was subtracted with.
+     */
+    public void analyse(Frame frame) {
+        FrameGeometry geometry = frame.getGeometry();
+        countVehicles.setThresholds(geometry.scaleArea(config.getAreaThreshold()), geometry.scaleArea(config.getVehicleSizeThreshold()));
+        countVehicles.setLanes(geometry.countingLines, geometry.speedLines);
+        long start = System.nanoTime();
+        countVehicles.findAndDrawContours(frame.getImage(), frame.getForeground(), geometry.regionOffset);
+        long found = System.nanoTime();
+        frameIndex = frame.getIndex();
+        frameTime = frame.getTimestamp();
+        if (!(frameTime > 0) && frameIndex > 1)
+            frameTime = (frameIndex - 1) * 1000 / videoFPS; // the capture does not know the position
+        timeInSec = frameIndex / videoFPS;
+        if (geometry != indexedGeometry) {
+            // the lanes keep their indices, a lane the results have not been created with is not counted
+            int indexed = Math.min(lanes, geometry.countingLines.length);
+            countingIndex = new LineIndex(Arrays.copyOf(geometry.countingLines, indexed), (int) frameSize.width, (int) frameSize.height);
+            speedIndex = new LineIndex(Arrays.copyOf(geometry.speedLines, indexed), (int) frameSize.width, (int) frameSize.height);
+            indexedGeometry = geometry;
+        }
+        int[] boxes = countVehicles.getBoxes();
+        int boxCount = countVehicles.getBoxCount();
+        tracker.update(boxes, countVehicles.getAreas(), boxCount, countingIndex.cross(boxes, boxCount), speedIndex.cross(boxes, boxCount));
+
+        try {
+            count();
+            speedMeasure(geometry);
+        } catch (WriteException e) {
+            e.printStackTrace();
+        }
+
+        if (decimator != null)
+            decimator.update(isSpeedPending() || geometry.nearZone == null || countVehicles.isContourNear(geometry.nearZone));
+
+        videoRealTime();
+
+        long counted = System.nanoTime();
+        if (encoder != null)
+            encoder.offer(frame.getImage());
+        if (clipRecorder != null)
+            clipRecorder.offer(frame.getImage(), frameIndex);
+        if (metrics != null) {
+            metrics.record(PipelineMetrics.Stage.CONTOURS, found - start);
+            metrics.record(PipelineMetrics.Stage.COUNTING, counted - found);
+            if (encoder != null || clipRecorder != null)
+                metrics.record(PipelineMetrics.Stage.ENCODE, System.nanoTime() - counted);
+            if (encoder != null)
+                metrics.setDroppedVideoFrames(encoder.getDroppedFrames());
+            if (clipRecorder != null)
+                metrics.setDroppedClips(clipRecorder.getDroppedClips());
+            metrics.frameAnalysed(boxCount, pendingCount());
+        }
+        long latency = System.nanoTime() - frame.getCaptureNanos();
+        latencySum += latency;
+        maxLatency = Math.max(maxLatency, latency);
+        analysedFrames++;
+    }
+
+    public void finish() {
+        try {
+            results.close();
+        } finally {
+            if (encoder != null)
+                encoder.close();
+            if (clipRecorder != null)
+                clipRecorder.close();
+        }
+    }
+
+    public synchronized void count() throws WriteException {
+        for (VehicleTracker.Crossing crossing : tracker.getCounted()) {
+            if (frameIndex < windowStart || frameIndex > windowEnd)
+                continue; // tracked, so that it is not counted later either
+            int lane = crossing.getLane();
+            VehicleTracker.Track track = crossing.getTrack();
+            int row = ++counters[lane];
+            track.rows[lane] = row;
+            int type = countVehicles.classifyIndex(track.getArea());
+            if (pending[lane].isFull())
+                takeBack(lane, pending[lane].oldest());
+            track.slots[lane] = pending[lane].add(frameTime, type, row, timeInSec);
+
+            amounts[lane][type]++;
+            vehicleCounted(lane, type);
+            if (clipRecorder != null && !(config.getClipSpeed() > 0))
+                clipRecorder.trigger(frameIndex);
+            results.addVehicle(lane, row, CountVehicles.VEHICLE_TYPES[type], timeInSec);
+        }
+    }
+
+    public synchronized void speedMeasure(FrameGeometry geometry) throws WriteException {
+        for (VehicleTracker.Crossing crossing : tracker.getMeasured()) {
+            int lane = crossing.getLane();
+            int row = crossing.getTrack().rows[lane];
+            int slot = crossing.getTrack().slots[lane];
+            if (!pending[lane].isPending(slot, row))
+                continue; // waited too long, the vehicle has already been taken back
+
+            // the time includes the frame of the crossing, as the frames were counted before
+            double distance = geometry.lanes.get(lane).getDistance();
+            double currentSpeed = computeSpeed(distance, (frameTime - pending[lane].getStart(slot)) / 1000 + 1 / videoFPS);
+            int type = pending[lane].getType(slot);
+            pending[lane].remove(slot);
+
+            sumSpeeds[lane][type] += currentSpeed;
+            measuredSpeeds[lane][type]++;
+            averageSpeedChanged(lane, type);
+            if (clipRecorder != null && config.getClipSpeed() > 0 && currentSpeed > config.getClipSpeed())
+                clipRecorder.trigger(frameIndex);
+            results.addSpeed(lane, row, CountVehicles.VEHICLE_TYPES[type], currentSpeed, timeInSec);
+        }
+
+        // a vehicle which does not reach the speed line in time is taken back, as it was probably no vehicle
+        for (int lane = 0; lane < lanes && lane < geometry.lanes.size(); lane++) {
+            double maxWaiting = maxWaitingMillis(geometry.lanes.get(lane).getDistance());
+            PendingSpeedBuffer buffer = pending[lane];
+            while (!buffer.isEmpty() && frameTime - buffer.getStart(buffer.oldest()) > maxWaiting) {
+                takeBack(lane, buffer.oldest());
+            }
+        }
+    }
+
+    private void takeBack(int lane, int slot) throws WriteException {
+        int type = pending[lane].getType(slot);
+        int row = pending[lane].getRow(slot);
+        double countedInSec = pending[lane].getCountedInSec(slot);
+        pending[lane].remove(slot);
+        amounts[lane][type]--;
+        vehicleCounted(lane, type);
+        results.takeBack(lane, row, CountVehicles.VEHICLE_TYPES[type], countedInSec, timeInSec);
+    }
+
+    /**
+     * Reports the amount of the lane and the amount of all lanes of the vehicle type.
+     */
+    private void vehicleCounted(int lane, int type) {
+        String vehicleType = CountVehicles.VEHICLE_TYPES[type];
+        listener.laneVehicleCounted(laneNames.get(lane), vehicleType, amounts[lane][type]);
+
+        int amount = 0;
+        for (int l = 0; l < lanes; l++) {
+            amount += amounts[l][type];
+        }
+        listener.vehicleCounted(vehicleType, amount);
+    }
+
+    private void averageSpeedChanged(int lane, int type) {
+        String vehicleType = CountVehicles.VEHICLE_TYPES[type];
+        listener.laneAverageSpeedChanged(laneNames.get(lane), vehicleType, sumSpeeds[lane][type] / measuredSpeeds[lane][type]);
+
+        double sum = 0;
+        int measured = 0;
+        for (int l = 0; l < lanes; l++) {
+            sum += sumSpeeds[l][type];
+            measured += measuredSpeeds[l][type];
+        }
+        listener.averageSpeedChanged(vehicleType, sum / measured);
+    }
+
+    private int pendingCount() {
+        int count = 0;
+        for (PendingSpeedBuffer buffer : pending) {
+            count += buffer.size();
+        }
+        return count;
+    }
+
+    /**
+     * @return true while a counted vehicle is waiting to cross the speed line
+     */
+    public boolean isSpeedPending() {
+        for (PendingSpeedBuffer buffer : pending) {
+            if (!buffer.isEmpty())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return how long a counted vehicle may need to reach the speed line
+     */
+    private static double maxWaitingMillis(double distance) {
+        return distance / 3 * 1000;
+    }
+
+    /**
+     * @param distance the distance between the lines in meters
+     * @param duration the time between the crossings of both lines in seconds
+     */
+    public static double computeSpeed(double distance, double duration) {
+        double v = (distance / duration) * 3.6;
+        return v;
+    }
+
+    private double videoRealTime() {
+        listener.timeChanged(timeInSec);
+        return timeInSec;
+    }
+
+    /**
+     * Only the vehicles which cross a counting line within the given frames are counted. The others are still
+     * tracked, so a vehicle which crosses before the first frame is not counted when it is still on the line.
+     */
+    public void setCountingWindow(long firstFrame, long lastFrame) {
+        this.windowStart = firstFrame;
+        this.windowEnd = lastFrame;
+    }
+
+    /**
+     * @return true when the last frame of the counting window has been analysed and no speed is pending any more
+     */
+    public boolean isWindowFinished() {
+        return frameIndex >= windowEnd && !isSpeedPending();
+    }
+
+    /**
+     * @return the decimator the frames of this session have to be read with, null when every frame is analysed
+     */
+    public FrameDecimator getDecimator() {
+        return decimator;
+    }
+
+    /**
+     * @return the number of counted vehicles of all lanes, including the ones taken back later
+     */
+    public int getCounter() {
+        int counter = 0;
+        for (int lane = 0; lane < lanes; lane++) {
+            counter += counters[lane];
+        }
+        return counter;
+    }
+
+    public List<String> getLaneNames() {
+        return laneNames;
+    }
+
+    /**
+     * @return the number of vehicles of the lane, per type
+     */
+    public int[] getAmounts(int lane) {
+        return amounts[lane].clone();
+    }
+
+    /**
+     * @param metrics records the time of every step of the following frames; null records nothing
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param encoder receives every analysed frame with the lines and the boxes drawn in; closed by {@link #finish()}
+     */
+    public void setVideoEncoder(VideoEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * @param clipRecorder receives every analysed frame and the events; closed by {@link #finish()}
+     */
+    public void setClipRecorder(ClipRecorder clipRecorder) {
+        this.clipRecorder = clipRecorder;
+    }
+
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    public long getAnalysedFrames() {
+        return analysedFrames;
+    }
+
+    /**
+     * @return the mean time from reading a frame to the end of its analysis, in milliseconds
+     */
+    public double getMeanLatencyMillis() {
+        return analysedFrames == 0 ? 0 : latencySum / 1e6 / analysedFrames;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatency / 1e6;
+    }
+
+    public VideoProcessor getVideoProcessor() {
+        return videoProcessor;
+    }
+
+    public double getVideoFPS() {
+        return videoFPS;
+    }
+}
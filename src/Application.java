@@ -2,6 +2,7 @@ import jxl.write.WriteException;
 import org.opencv.core.Core;
 import tw.edu.sju.ee.commons.nativeutils.NativeUtils;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
@@ -21,6 +22,17 @@ public class Application {
     }
 
     public static void main(String[] args) throws IOException, WriteException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--batch")) {
+            if (args.length < 2) {
+                System.err.println("Usage: java -jar KSTrafficAnalyzer.jar --batch <config.properties>");
+                System.exit(1);
+            }
+            // must be set before any AWT class is loaded
+            System.setProperty("java.awt.headless", "true");
+            BatchAnalyzer.load(new File(args[1])).run();
+            return;
+        }
+
         GUI gui = new GUI();
         gui.init();
     }
@@ -0,0 +1,211 @@
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Analyses a list of videos without the GUI. The videos, the lines, the thresholds and the output directory are
+ * read from a properties file. Every video gets its own {@link AnalysisSession} and all the videos share one
+ * {@link AnalysisEngine} with a worker per core, or "threads" workers. The results of a video are written to a subdirectory named after the video.
+ * With "segments" above 1 every video is split into that many time segments, which are analysed concurrently
+ * as well, see {@link SegmentedAnalysis}. With "live = true" the videos are camera numbers or stream URLs read
+ * by a {@link LiveSource}; a video file is then replayed at its own frame rate. The {@link PipelineMetrics} of every
+ * video are registered with JMX and, with "metricsLog" above 0, printed every that many seconds. With
+ * "saveVideo = true" the annotated frames are written to a video next to the results, with "clips = true" only
+ * short clips around the counted vehicles, see {@link ClipRecorder}.
+ */
+public class BatchAnalyzer {
+    private final AnalysisConfig config;
+    private final List<String> videos = new ArrayList<>();
+    private final File outputDirectory;
+    private final int threads;
+    private final int segments;
+    private final double segmentWarmup;
+    private final boolean live;
+    private final long metricsLog;
+    private final boolean saveVideo;
+
+    public BatchAnalyzer(Properties properties) {
+        this.config = AnalysisConfig.fromProperties(properties);
+
+        String videoList = properties.getProperty("videos");
+        if (videoList == null)
+            throw new IllegalArgumentException("Missing \"videos\" in the configuration");
+        for (String video : videoList.split(",")) {
+            if (!video.trim().isEmpty())
+                videos.add(video.trim());
+        }
+
+        this.outputDirectory = new File(properties.getProperty("output", ".").trim());
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.threads = Integer.parseInt(properties.getProperty("threads", String.valueOf(cores)).trim());
+        this.segments = Integer.parseInt(properties.getProperty("segments", "1").trim());
+        this.segmentWarmup = Double.parseDouble(properties.getProperty("segmentWarmup", "60").trim());
+        this.live = Boolean.parseBoolean(properties.getProperty("live", "false").trim());
+        this.metricsLog = Long.parseLong(properties.getProperty("metricsLog", "0").trim());
+        this.saveVideo = Boolean.parseBoolean(properties.getProperty("saveVideo", "false").trim());
+    }
+
+    public static BatchAnalyzer load(File configFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(configFile)) {
+            properties.load(in);
+        }
+        return new BatchAnalyzer(properties);
+    }
+
+    public void run() {
+        AnalysisEngine engine = new AnalysisEngine(threads);
+        List<CompletableFuture<?>> running = new ArrayList<>();
+        for (String video : videos) {
+            try {
+                CompletableFuture<?> future = segments > 1 && !live ? analyseSegmented(video, engine) : analyse(video, engine);
+                if (future != null) {
+                    running.add(future.exceptionally(e -> {
+                        System.err.println("Couldn't analyse " + video);
+                        e.printStackTrace();
+                        return null;
+                    }));
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Couldn't analyse " + video);
+                e.printStackTrace();
+            }
+        }
+        for (CompletableFuture<?> future : running) {
+            future.join();
+        }
+        engine.shutdown();
+    }
+
+    /**
+     * Starts the analysis of the video on the engine. With "live" a camera has to be stopped by ending the process;
+     * the results are written while they are counted.
+     *
+     * @return completed when the results have been written, null when the video couldn't be opened
+     */
+    private CompletableFuture<?> analyse(String video, AnalysisEngine engine) throws IOException {
+        LiveSource source = live ? LiveSource.open(video) : null;
+        VideoCapture capture = live ? source.getCapture() : new VideoCapture(video);
+        if (!capture.isOpened()) {
+            System.err.println("Couldn't open video: " + video);
+            release(source, capture);
+            return null;
+        }
+
+        File directory = createDirectory(video);
+        double fps = live ? source.getFPS() : capture.get(Videoio.CAP_PROP_FPS);
+        ResultsSink results = null;
+        AnalysisSession session = null;
+        PipelineMetrics metrics = null;
+        CompletableFuture<AnalysisSession> future;
+        try {
+            results = ResultsSink.open(directory, config);
+            session = new AnalysisSession(config, fps, config.analysisSizeOf(capture), results, new AnalysisListener() {
+            });
+            if (saveVideo)
+                session.setVideoEncoder(config.createVideoEncoder(directory, fps, capture));
+            if (config.isClipsToWrite())
+                session.setClipRecorder(config.createClipRecorder(directory, fps));
+            metrics = new PipelineMetrics(video).register().startLogging(metricsLog);
+            session.setMetrics(metrics);
+            future = live ? engine.submit(source, config, session) : engine.submit(capture, 0, config, session);
+        } catch (IOException | RuntimeException e) {
+            // the engine releases the capture and finishes the session only once the video has been submitted
+            release(source, capture);
+            if (session != null)
+                session.finish();
+            else if (results != null)
+                results.close();
+            if (metrics != null)
+                metrics.close();
+            throw e;
+        }
+
+        AnalysisSession started = session;
+        PipelineMetrics startedMetrics = metrics;
+        return future.whenComplete((finished, e) -> startedMetrics.close()).thenAccept(finished -> {
+            if (live) {
+                System.out.println(String.format("%s: %d frames analysed, %d dropped, latency %.0f ms on average, %.0f ms at most",
+                        video, started.getAnalysedFrames(), source.getDroppedFrames(), started.getMeanLatencyMillis(), started.getMaxLatencyMillis()));
+            }
+            List<String> lanes = started.getLaneNames();
+            int[][] amounts = new int[lanes.size()][];
+            for (int lane = 0; lane < lanes.size(); lane++) {
+                amounts[lane] = started.getAmounts(lane);
+            }
+            printSummary(video, lanes, amounts, directory);
+        });
+    }
+
+    private static void release(LiveSource source, VideoCapture capture) {
+        if (source != null)
+            source.stop();
+        else
+            capture.release();
+    }
+
+    /**
+     * Starts the segments of the video on the engine; the future completes when the results have been written.
+     */
+    private CompletableFuture<?> analyseSegmented(String video, AnalysisEngine engine) throws IOException {
+        File directory = createDirectory(video);
+        ResultsSink results = ResultsSink.open(directory, config);
+        PipelineMetrics metrics = new PipelineMetrics(video).register().startLogging(metricsLog);
+        SegmentedAnalysis analysis = new SegmentedAnalysis(config, video, segments, segmentWarmup);
+        analysis.setMetrics(metrics);
+        if (config.isClipsToWrite())
+            analysis.setClipDirectory(directory);
+        return analysis.start(engine, results, directory).whenComplete((finished, e) -> metrics.close()).thenAccept(finished -> {
+            List<String> lanes = finished.getLaneNames();
+            int[][] amounts = new int[lanes.size()][];
+            for (int lane = 0; lane < lanes.size(); lane++) {
+                amounts[lane] = finished.getAmounts(lane);
+            }
+            printSummary(video, lanes, amounts, directory);
+        });
+    }
+
+    private File createDirectory(String video) throws IOException {
+        File directory = new File(outputDirectory, baseName(video));
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Couldn't create " + directory);
+        return directory;
+    }
+
+    /**
+     * The vehicles which were taken back are not counted, like in the amounts.
+     */
+    private static void printSummary(String video, List<String> lanes, int[][] laneAmounts, File directory) {
+        int counter = 0;
+        for (int[] amounts : laneAmounts) {
+            for (int amount : amounts) {
+                counter += amount;
+            }
+        }
+        StringBuilder summary = new StringBuilder(video + ": " + counter + " vehicles");
+        if (lanes.size() > 1) {
+            for (int lane = 0; lane < lanes.size(); lane++) {
+                int[] amounts = laneAmounts[lane];
+                summary.append(", ").append(lanes.get(lane)).append(":");
+                for (int type = 0; type < amounts.length; type++) {
+                    summary.append(" ").append(amounts[type]).append(" ").append(CountVehicles.VEHICLE_TYPES[type]);
+                }
+            }
+        }
+        System.out.println(summary + ", results in " + directory);
+    }
+
+    private static String baseName(String video) {
+        String name = new File(video).getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+}
@@ -15,6 +15,12 @@ public class CheckCrossLine {
     Point l1;
     Point l2;
 
+    // x = c * y + d, for the lines which are steeper than the pixel grid can tell
+    private final double c;
+    private final double d;
+    private final boolean isSloped;
+    private final boolean isHorizontal;
+    private final boolean isVertical;
 
     public CheckCrossLine(Point l1, Point l2) {
         this.l1 = l1;
@@ -23,49 +29,75 @@ public class CheckCrossLine {
         this.lAy = (int) (Math.min(l1.y, l2.y));
         this.lBx = (int) (Math.max(l1.x, l2.x));
         this.lBy = (int) (Math.max(l1.y, l2.y));
-    }
-
-    public boolean rectContainLine(Rect rect) {
-        int PrA = (int) ((rect.tl().x + rect.br().x) / 2);      //straight "a"
-        int PrB = (int) ((rect.tl().y + rect.br().y) / 2);      //straight "b"
-
-//        int pktCx = PrA;
-        int pktCy = (int) (rect.tl().y);
-
-//        int pktDx = PrA;
-        int pktDy = (int) (rect.br().y);
-
-        int pktEx = (int) (rect.tl().x);
-//        int pktEy = PrB;
-
-        int pktFx = (int) (rect.br().x);
-//        int pktFy = PrB;
-
-
-        if (lBx != lAx && lBy != lAy) {
 
+        this.isSloped = lBx != lAx && lBy != lAy;
+        this.isHorizontal = lBy == lAy && lBx != lAx;
+        this.isVertical = lBx == lAx && lBy != lAy;
+        if (l2.x != l1.x) {
             this.a = (l2.y - l1.y) / (l2.x - l1.x);
             this.b = l1.y - a * l1.x;
+        }
+        if (l2.y != l1.y) {
+            this.c = (l2.x - l1.x) / (l2.y - l1.y);
+            this.d = l1.x - c * l1.y;
+        } else {
+            this.c = 0;
+            this.d = l1.x;
+        }
+    }
 
-            int crax = PrA;
-            double cray = (a * PrA + b);
-
-            double crbx = (PrB - b) / a;
-            int crby = PrB;
+    public boolean rectContainLine(Rect rect) {
+        return rectContainLine(rect.x, rect.y, rect.width, rect.height);
+    }
 
-            if ((lAx <= crax) && (lBx >= crax) &&
+    /**
+     * Same as {@link #rectContainLine(Rect)}, without creating the corner points of the rectangle.
+     * The rectangle contains the line when the line passes through it at the vertical or the horizontal
+     * center line of the rectangle.
+     */
+    public boolean rectContainLine(int x, int y, int width, int height) {
+        int PrA = x + (width >> 1);      //straight "a"
+        int PrB = y + (height >> 1);     //straight "b"
+
+        if (isSloped) {
+            double cray = a * PrA + b;
+            if ((lAx <= PrA) && (lBx >= PrA) &&
                     (lAy <= cray) && (lBy >= cray) &&
-                    (pktCy <= cray) && (pktDy >= cray))
+                    (y <= cray) && (y + height >= cray))
                 return true;
 
-            else if ((lAx <= crbx) && (lBx >= crbx) &&
-                    (lAy <= crby) && (lBy >= crby) &&
-                    (pktEx <= crbx) && (pktFx >= crbx))
-                return true;
-
-            else
-                return false;
+            double crbx = (PrB - b) / a;
+            return (lAx <= crbx) && (lBx >= crbx) &&
+                    (lAy <= PrB) && (lBy >= PrB) &&
+                    (x <= crbx) && (x + width >= crbx);
+        } else if (isHorizontal) {
+            double cray = a * PrA + b;
+            return (lAx <= PrA) && (lBx >= PrA) && (y <= cray) && (y + height >= cray);
+        } else if (isVertical) {
+            double crbx = c * PrB + d;
+            return (lAy <= PrB) && (lBy >= PrB) && (x <= crbx) && (x + width >= crbx);
         } else
             return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests the given boxes of a frame at once, e.g. the candidates of a {@link SpatialGrid}.
+     *
+     * @param boxes    x, y, width and height of every box
+     * @param indices  the indices of the boxes to test
+     * @param crossing receives the bit b % 64 of the word b / 64 for every tested box b which contains the line; the
+     *                 bits of the other boxes are left as they are
+     * @return the number of tested boxes which contain the line
+     */
+    public int rectsContainLine(int[] boxes, int[] indices, int count, long[] crossing) {
+        int crossed = 0;
+        for (int i = 0; i < count; i++) {
+            int b = indices[i];
+            if (rectContainLine(boxes[4 * b], boxes[4 * b + 1], boxes[4 * b + 2], boxes[4 * b + 3])) {
+                crossing[b >> 6] |= 1L << (b & 63);
+                crossed++;
+            }
+        }
+        return crossed;
+    }
+}
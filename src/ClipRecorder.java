@@ -0,0 +1,208 @@
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoWriter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes short clips around the events instead of the whole video. The last seconds of the annotated frames are
+ * kept as JPEG in a ring of a fixed number of slots. An event starts a clip with these frames as its pre-roll; the
+ * following frames are added until the post-roll after the last event of the clip has passed. The finished clips are
+ * written by a background thread, so the disk is only written to when something has happened.
+ * <p>
+ * A clip is cut after {@link #MAX_CLIP_SECONDS}, and the next one continues without a pre-roll. When the writer is
+ * behind by {@link #QUEUED_CLIPS} clips, further clips are dropped.
+ */
+public class ClipRecorder {
+    private static final int MAX_CLIP_SECONDS = 60;
+    private static final int QUEUED_CLIPS = 4;
+    private static final Clip END = new Clip(null);
+
+    private final File directory;
+    private final String fourcc;
+    private final double fps;
+    private final int postRollFrames;
+    private final int maxClipFrames;
+    private final MatOfInt parameters;
+    private final MatOfByte encoded = new MatOfByte();
+
+    // the pre-roll, oldest first from head
+    private final byte[][] slots;
+    private final int[] lengths;
+    private int head;
+    private int filled;
+
+    private Clip clip;
+    private long clipEnd;
+
+    private final BlockingQueue<Clip> queue = new ArrayBlockingQueue<>(QUEUED_CLIPS + 1);
+    private final Thread thread;
+    private volatile long writtenClips;
+    private volatile long droppedClips;
+    private boolean isClosed = false;
+
+    /**
+     * @param fourcc   the four characters of the codec of the clips, e.g. "MJPG"
+     * @param fps      the frame rate the frames are offered with
+     * @param preRoll  the seconds before an event
+     * @param postRoll the seconds after an event
+     * @param quality  the JPEG quality of the buffered frames, 0 to 100
+     */
+    public ClipRecorder(File directory, String fourcc, double fps, double preRoll, double postRoll, int quality) {
+        if (fourcc.length() != 4)
+            throw new IllegalArgumentException("A codec must be given by four characters, not \"" + fourcc + "\"");
+        this.directory = directory;
+        this.fourcc = fourcc;
+        this.fps = fps;
+        int preRollFrames = Math.max(1, (int) Math.round(preRoll * fps));
+        this.postRollFrames = Math.max(1, (int) Math.round(postRoll * fps));
+        this.maxClipFrames = Math.max(preRollFrames + postRollFrames, (int) (MAX_CLIP_SECONDS * fps));
+        this.parameters = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, quality);
+        this.slots = new byte[preRollFrames][];
+        this.lengths = new int[preRollFrames];
+
+        thread = new Thread(this::write, "clips " + directory.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Starts a clip with the buffered frames, or extends the current one by the post-roll.
+     * The frame of the event is the next one offered.
+     */
+    public void trigger(long frameIndex) {
+        if (clip == null) {
+            clip = new Clip(new File(directory, "Clip_" + frameIndex + ".avi"));
+            for (int i = 0; i < filled; i++) {
+                int slot = (head + i) % slots.length;
+                clip.frames.add(Arrays.copyOf(slots[slot], lengths[slot]));
+            }
+        }
+        clipEnd = Math.max(clipEnd, frameIndex + postRollFrames);
+    }
+
+    /**
+     * Compresses the frame into the ring and adds it to the current clip. Called from one thread only.
+     */
+    public void offer(Mat image, long frameIndex) {
+        Imgcodecs.imencode(".jpg", image, encoded, parameters);
+        int length = (int) encoded.total();
+        int slot = (head + filled) % slots.length;
+        if (filled == slots.length) {
+            head = (head + 1) % slots.length;
+        } else {
+            filled++;
+        }
+        if (slots[slot] == null || slots[slot].length < length)
+            slots[slot] = new byte[length];
+        encoded.get(0, 0, slots[slot]);
+        lengths[slot] = length;
+
+        if (clip == null)
+            return;
+        clip.frames.add(Arrays.copyOf(slots[slot], length));
+        if (frameIndex >= clipEnd) {
+            finishClip();
+        } else if (clip.frames.size() >= maxClipFrames) {
+            finishClip();
+            clip = new Clip(new File(directory, "Clip_" + (frameIndex + 1) + ".avi"));
+        }
+    }
+
+    private void finishClip() {
+        if (!queue.offer(clip))
+            droppedClips++;
+        clip = null;
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                Clip next = queue.take();
+                if (next == END)
+                    return;
+                writeClip(next);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    private void writeClip(Clip clip) {
+        VideoWriter writer = null;
+        for (byte[] bytes : clip.frames) {
+            MatOfByte buffer = new MatOfByte(bytes);
+            Mat image = Imgcodecs.imdecode(buffer, Imgcodecs.IMREAD_COLOR);
+            buffer.release();
+            if (writer == null) {
+                writer = new VideoWriter(clip.file.getPath(),
+                        VideoWriter.fourcc(fourcc.charAt(0), fourcc.charAt(1), fourcc.charAt(2), fourcc.charAt(3)), fps, image.size());
+                if (!writer.isOpened()) {
+                    System.err.println("The clip " + clip.file + " could not be opened with the codec " + fourcc);
+                    return;
+                }
+            }
+            writer.write(image);
+            image.release();
+        }
+        if (writer != null)
+            writer.release();
+        writtenClips++;
+    }
+
+    /**
+     * Finishes the current clip, up to the last offered frame, and waits until all the clips are written.
+     * Further calls do nothing.
+     */
+    public synchronized void close() {
+        if (isClosed)
+            return;
+        isClosed = true;
+        if (clip != null && !clip.frames.isEmpty())
+            finishClip();
+        clip = null;
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        encoded.release();
+    }
+
+    /**
+     * @return the bytes the buffered pre-roll takes
+     */
+    public long getBufferedBytes() {
+        long bytes = 0;
+        for (byte[] slot : slots) {
+            if (slot != null)
+                bytes += slot.length;
+        }
+        return bytes;
+    }
+
+    public long getWrittenClips() {
+        return writtenClips;
+    }
+
+    public long getDroppedClips() {
+        return droppedClips;
+    }
+
+    private static class Clip {
+        final File file;
+        final List<byte[]> frames = new ArrayList<>();
+
+        Clip(File file) {
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * The blobs are the 8-connected components of the mask, measured by {@link Imgproc#connectedComponentsWithStats}
+ * in a single pass without any contour. The area is the number of pixels, which is somewhat larger than the
+ * polygon area of the contour of the same blob, so the area thresholds may need to be raised a little.
+ */
+public class ComponentFeatureExtractor implements FeatureExtractor {
+    private final Mat labels = new Mat();
+    private final Mat stats = new Mat();
+    private final Mat centroids = new Mat();
+    private int[] statsBuffer = new int[0];
+    private double[] centroidsBuffer = new double[0];
+
+    @Override
+    public void extract(Mat binary, Point offset, double minArea, FeatureTable table) {
+        table.clear();
+        int components = Imgproc.connectedComponentsWithStats(binary, labels, stats, centroids, 8, CvType.CV_32S);
+        if (components <= 1)
+            return;
+
+        int columns = stats.cols();
+        if (statsBuffer.length < components * columns) {
+            statsBuffer = new int[components * columns];
+            centroidsBuffer = new double[components * 2];
+        }
+        stats.get(0, 0, statsBuffer);
+        centroids.get(0, 0, centroidsBuffer);
+
+        int offsetX = offset == null ? 0 : (int) offset.x;
+        int offsetY = offset == null ? 0 : (int) offset.y;
+        // label 0 is the background
+        for (int label = 1; label < components; label++) {
+            int row = label * columns;
+            int area = statsBuffer[row + Imgproc.CC_STAT_AREA];
+            if (area > minArea) {
+                table.add(statsBuffer[row + Imgproc.CC_STAT_LEFT] + offsetX, statsBuffer[row + Imgproc.CC_STAT_TOP] + offsetY,
+                        statsBuffer[row + Imgproc.CC_STAT_WIDTH], statsBuffer[row + Imgproc.CC_STAT_HEIGHT], area,
+                        centroidsBuffer[2 * label] + offsetX, centroidsBuffer[2 * label + 1] + offsetY);
+            }
+        }
+    }
+}
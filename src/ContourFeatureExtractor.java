@@ -0,0 +1,39 @@
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The blobs are the outer contours of the mask; holes inside a vehicle are not separate blobs. The area is the
+ * area of the contour polygon, the centroid is the center of the bounding box.
+ */
+public class ContourFeatureExtractor implements FeatureExtractor {
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private final Mat hierarchy = new Mat();
+
+    @Override
+    public void extract(Mat binary, Point offset, double minArea, FeatureTable table) {
+        table.clear();
+        if (offset == null)
+            Imgproc.findContours(binary, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        else
+            Imgproc.findContours(binary, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE, offset);
+
+        for (int i = 0; i < contours.size(); i++) {
+            MatOfPoint contour = contours.get(i);
+            double area = Imgproc.contourArea(contour);
+            if (area > minArea) {
+                Rect rectangle = Imgproc.boundingRect(contour);
+                table.add(rectangle.x, rectangle.y, rectangle.width, rectangle.height, area,
+                        rectangle.x + rectangle.width / 2.0, rectangle.y + rectangle.height / 2.0);
+            }
+            // released here instead of waiting for the finalizer
+            contour.release();
+        }
+        contours.clear();
+    }
+}
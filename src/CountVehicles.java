@@ -1,131 +1,141 @@
 import org.opencv.core.*;
 import org.opencv.imgproc.Imgproc;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Created by Krzysiek on 2016-07-26.
  */
 public class CountVehicles {
+    private static final Scalar COUNTING_LINE_COLOR = new Scalar(0, 0, 255);
+    private static final Scalar SPEED_LINE_COLOR = new Scalar(0, 255, 0);
+    private static final Scalar BOUNDING_BOX_COLOR = new Scalar(255, 0, 0);
+    public static final String[] VEHICLE_TYPES = {"Car", "Van", "Lorry"};
+
     private Mat image;
-    public List<MatOfPoint> goodContours = new ArrayList<MatOfPoint>();
+    private FeatureExtractor extractor = new ComponentFeatureExtractor();
+    private final FeatureTable features = new FeatureTable();
     private int areaThreshold;
     private int vehicleSizeThreshold;
-    private Point lineCount1;
-    private Point lineCount2;
-    private Point lineSpeed1;
-    private Point lineSpeed2;
-    CheckCrossLine checkRectLine;
-    CheckCrossLine checkSpeedLine;
-    boolean countingFlag = false;
-    boolean speedFlag = false;
-    boolean crossingLine;
-    boolean crossingSpeedLine;
-    MatOfPoint contourVehicle;
-
-    public CountVehicles(int areaThreshold, int vehicleSizeThreshold, Point lineCount1, Point lineCount2, Point lineSpeed1, Point lineSpeed2, boolean crossingLine, boolean crossingSpeedLine) {
+    private Point[][] countingLines = new Point[0][];
+    private Point[][] speedLines = new Point[0][];
+    // the corners of the box being drawn, reused for every box
+    private final Point topLeft = new Point();
+    private final Point bottomRight = new Point();
+
+    /**
+     * The lanes to draw are set with {@link #setLanes(Point[][], Point[][])}; the crossings are tested outside, see
+     * {@link LineIndex} and {@link VehicleTracker}.
+     */
+    public CountVehicles(int areaThreshold, int vehicleSizeThreshold) {
+        setThresholds(areaThreshold, vehicleSizeThreshold);
+    }
+
+    public void setThresholds(int areaThreshold, int vehicleSizeThreshold) {
         this.areaThreshold = areaThreshold;
         this.vehicleSizeThreshold = vehicleSizeThreshold;
-        this.lineCount1 = lineCount1;
-        this.lineCount2 = lineCount2;
-        this.lineSpeed1 = lineSpeed1;
-        this.lineSpeed2 = lineSpeed2;
-        this.crossingLine = crossingLine;
-        this.crossingSpeedLine = crossingSpeedLine;
-        this.checkRectLine = new CheckCrossLine(lineCount1, lineCount2);
-        this.checkSpeedLine = new CheckCrossLine(lineSpeed1, lineSpeed2);
     }
 
+    /**
+     * @param extractor finds the blobs of the following frames, see {@link FeatureExtractor#create(String)}
+     */
+    public void setFeatureExtractor(FeatureExtractor extractor) {
+        this.extractor = extractor;
+    }
+
+    /**
+     * @param countingLines the counting line of every lane, drawn into the image with the contours
+     * @param speedLines    the speed line of every lane
+     */
+    public void setLanes(Point[][] countingLines, Point[][] speedLines) {
+        this.countingLines = countingLines;
+        this.speedLines = speedLines;
+    }
+
+    /**
+     * Finds the vehicles of the next frame in a single pass of the feature extractor. The binary image may be
+     * modified.
+     */
     public Mat findAndDrawContours(Mat image, Mat binary) {
-        List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+        return findAndDrawContours(image, binary, null);
+    }
+
+    /**
+     * @param offset position of the binary image within the image when only a region of interest has been analysed
+     */
+    public Mat findAndDrawContours(Mat image, Mat binary, Point offset) {
         this.image = image;
-        Imgproc.findContours(binary, contours, new Mat(), Imgproc.CHAIN_APPROX_NONE, Imgproc.CHAIN_APPROX_SIMPLE);
-        Imgproc.line(image, lineCount1, lineCount2, new Scalar(0, 0, 255), 1);
-        Imgproc.line(image, lineSpeed1, lineSpeed2, new Scalar(0, 255, 0), 1);
-
-        for (int i = 0; i < contours.size(); i++) {
-            MatOfPoint currentContour = contours.get(i);
-            double currentArea = Imgproc.contourArea(currentContour);
-
-            if (currentArea > areaThreshold) {
-                goodContours.add(contours.get(i));
-                drawBoundingBox(currentContour);
-            }
+        extractor.extract(binary, offset, areaThreshold, features);
+        for (Point[] line : countingLines) {
+            Imgproc.line(image, line[0], line[1], COUNTING_LINE_COLOR, 1);
+        }
+        for (Point[] line : speedLines) {
+            Imgproc.line(image, line[0], line[1], SPEED_LINE_COLOR, 1);
+        }
+
+        int[] boxes = features.getBoxes();
+        for (int i = 0; i < features.size(); i++) {
+            topLeft.x = boxes[4 * i];
+            topLeft.y = boxes[4 * i + 1];
+            bottomRight.x = topLeft.x + boxes[4 * i + 2];
+            bottomRight.y = topLeft.y + boxes[4 * i + 3];
+            Imgproc.rectangle(image, topLeft, bottomRight, BOUNDING_BOX_COLOR, 1);
         }
 
         return image;
     }
 
-    public boolean isVehicleToAdd() {
-        for (int i = 0; i < goodContours.size(); i++) {
-            Rect rectangle = Imgproc.boundingRect(goodContours.get(i));
-            if (checkRectLine.rectContainLine(rectangle)) {
-                contourVehicle = getGoodContours().get(i);
-                countingFlag = true;
-                break;
-            }
-        }
-        if (countingFlag == true) {
-            if (crossingLine == false) {
-                crossingLine = true;
+    /**
+     * @return true when the bounding box of a vehicle of the current frame overlaps the zone
+     */
+    public boolean isContourNear(Rect zone) {
+        int[] boxes = features.getBoxes();
+        for (int i = 0; i < features.size(); i++) {
+            int x = boxes[4 * i];
+            int y = boxes[4 * i + 1];
+            if (x < zone.x + zone.width && zone.x < x + boxes[4 * i + 2] &&
+                    y < zone.y + zone.height && zone.y < y + boxes[4 * i + 3])
                 return true;
-            } else {
-
-                return false;
-            }
-        } else {
-            crossingLine = false;
-            return false;
         }
+        return false;
     }
 
-    public String classifier() {
-        double currentArea = Imgproc.contourArea(contourVehicle);
-        if (currentArea <= (double) vehicleSizeThreshold)
-            return "Car";
-        else if (currentArea <= 1.9 * (double) vehicleSizeThreshold)
-            return "Van";
-        else return "Lorry";
+    public String classify(double currentArea) {
+        return VEHICLE_TYPES[classifyIndex(currentArea)];
     }
 
-    private void drawBoundingBox(MatOfPoint currentContour) {
-        Rect rectangle = Imgproc.boundingRect(currentContour);
-        Imgproc.rectangle(image, rectangle.tl(), rectangle.br(), new Scalar(255, 0, 0), 1);
-
+    /**
+     * @return the index of the type of a vehicle with the given area in {@link #VEHICLE_TYPES}
+     */
+    public int classifyIndex(double currentArea) {
+        if (currentArea <= (double) vehicleSizeThreshold)
+            return 0;
+        else if (currentArea <= 1.9 * (double) vehicleSizeThreshold)
+            return 1;
+        else return 2;
     }
 
-    public boolean isToSpeedMeasure() {
-        for (int i = 0; i < goodContours.size(); i++) {
-            Rect rectangle = Imgproc.boundingRect(goodContours.get(i));
-            if (checkSpeedLine.rectContainLine(rectangle)) {
-                speedFlag = true;
-                break;
-            }
-        }
-        if (speedFlag == true) {
-            if (crossingSpeedLine == false) {
-                crossingSpeedLine = true;
-                return true;
-            } else {
-                return false;
-            }
-        } else {
-            crossingSpeedLine = false;
-            return false;
-        }
+    /**
+     * @return the vehicles of the current frame
+     */
+    public FeatureTable getFeatures() {
+        return features;
     }
 
-    public boolean isCrossingSpeedLine() {
-        return crossingSpeedLine;
+    /**
+     * @return x, y, width and height of the bounding box of every vehicle of the current frame
+     */
+    public int[] getBoxes() {
+        return features.getBoxes();
     }
 
-    public boolean isCrossingLine() {
-        return crossingLine;
+    /**
+     * @return the area of every vehicle of the current frame
+     */
+    public double[] getAreas() {
+        return features.getAreas();
     }
 
-    public List<MatOfPoint> getGoodContours() {
-        return goodContours;
+    public int getBoxCount() {
+        return features.size();
     }
 
 }
@@ -0,0 +1,31 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+/**
+ * Finds the blobs of a foreground mask in one pass and writes those larger than the area threshold to a
+ * {@link FeatureTable}.
+ */
+public interface FeatureExtractor {
+    String[] METHODS = {"contours", "components"};
+
+    /**
+     * @param binary    the foreground; every pixel which is not 0 is foreground. It may be modified.
+     * @param offset    added to the coordinates, the position of the binary image within the frame; may be null
+     * @param minArea   blobs of this area or less are left out
+     */
+    void extract(Mat binary, Point offset, double minArea, FeatureTable table);
+
+    /**
+     * @param method one of {@link #METHODS}
+     */
+    static FeatureExtractor create(String method) {
+        switch (method.trim().toLowerCase()) {
+            case "contours":
+                return new ContourFeatureExtractor();
+            case "components":
+                return new ComponentFeatureExtractor();
+            default:
+                throw new IllegalArgumentException("Unknown feature extraction \"" + method + "\", use contours or components");
+        }
+    }
+}
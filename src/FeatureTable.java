@@ -0,0 +1,55 @@
+import java.util.Arrays;
+
+/**
+ * The foreground blobs of one frame which are large enough to be vehicles, in primitive arrays indexed by the
+ * blob: bounding box, area and centroid. Filled once per frame by a {@link FeatureExtractor}, then read by the
+ * drawing, the line tests, the tracker and the classification. The arrays grow and are reused from frame to frame.
+ */
+public class FeatureTable {
+    private int count;
+    private int[] boxes = new int[64];
+    private double[] areas = new double[16];
+    private double[] centroids = new double[32];
+
+    public void clear() {
+        count = 0;
+    }
+
+    public void add(int x, int y, int width, int height, double area, double centroidX, double centroidY) {
+        if (count == areas.length) {
+            areas = Arrays.copyOf(areas, 2 * count);
+            boxes = Arrays.copyOf(boxes, 8 * count);
+            centroids = Arrays.copyOf(centroids, 4 * count);
+        }
+        boxes[4 * count] = x;
+        boxes[4 * count + 1] = y;
+        boxes[4 * count + 2] = width;
+        boxes[4 * count + 3] = height;
+        areas[count] = area;
+        centroids[2 * count] = centroidX;
+        centroids[2 * count + 1] = centroidY;
+        count++;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return x, y, width and height of every blob
+     */
+    public int[] getBoxes() {
+        return boxes;
+    }
+
+    public double[] getAreas() {
+        return areas;
+    }
+
+    /**
+     * @return x and y of the centroid of every blob
+     */
+    public double[] getCentroids() {
+        return centroids;
+    }
+}
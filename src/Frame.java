@@ -0,0 +1,123 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import static org.opencv.imgproc.Imgproc.resize;
+
+/**
+ * One preallocated slot of the {@link FramePipeline} ring. The Mats are allocated once and then
+ * overwritten by every frame which passes through the slot.
+ */
+public class Frame {
+    long index;
+    double timestamp;
+    long captureNanos;
+    long decodeNanos;
+    long resizeNanos;
+    boolean endOfStream;
+    boolean hasPreview;
+    FrameGeometry geometry;
+
+    final Mat raw = new Mat();
+    final Mat image = new Mat();
+    final Mat foreground = new Mat();
+    final Mat preview = new Mat();
+    final Mat display = new Mat();
+
+    private Mat region;
+    private Rect regionRect;
+    private long regionData;
+
+    /**
+     * Reads the next frame of the capture into this slot and scales it to the analysed size.
+     *
+     * @param size the analysed size, null to analyse the frames in their native size
+     * @return false at the end of the video
+     */
+    boolean read(VideoCapture capture, Size size, long index) {
+        Mat target = size == null ? image : raw;
+        long start = System.nanoTime();
+        capture.read(target);
+        long decoded = System.nanoTime();
+        if (target.empty())
+            return false;
+
+        if (size != null)
+            resize(raw, image, size);
+        this.decodeNanos = decoded - start;
+        this.resizeNanos = size == null ? 0 : System.nanoTime() - decoded;
+        this.index = index;
+        this.timestamp = capture.get(Videoio.CAP_PROP_POS_MSEC);
+        this.captureNanos = System.nanoTime();
+        this.endOfStream = false;
+        return true;
+    }
+
+    /**
+     * @return a view of the given part of the image. The view is kept until the region or the image buffer changes.
+     */
+    public Mat getRegion(Rect rect) {
+        if (region == null || !rect.equals(regionRect) || regionData != image.dataAddr()) {
+            if (region != null)
+                region.release();
+            region = image.submat(rect);
+            regionRect = rect;
+            regionData = image.dataAddr();
+        }
+        return region;
+    }
+
+    public long getIndex() {
+        return index;
+    }
+
+    public double getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the frame was read
+     */
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    public Mat getImage() {
+        return image;
+    }
+
+    public Mat getForeground() {
+        return foreground;
+    }
+
+    public Mat getPreview() {
+        return preview;
+    }
+
+    /**
+     * @return the image scaled to the given display size; the image itself when it already has that size
+     */
+    public Mat getDisplay(Size size) {
+        if (image.cols() == (int) size.width && image.rows() == (int) size.height)
+            return image;
+        resize(image, display, size);
+        return display;
+    }
+
+    /**
+     * @return the native memory of the buffers of this slot in bytes
+     */
+    public long nativeBytes() {
+        return bytes(raw) + bytes(image) + bytes(foreground) + bytes(preview) + bytes(display);
+    }
+
+    private static long bytes(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    public FrameGeometry getGeometry() {
+        return geometry;
+    }
+}
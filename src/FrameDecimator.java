@@ -0,0 +1,46 @@
+/**
+ * Decides which frames are analysed. While no contour is near the lines and no counted vehicle waits for its
+ * speed measurement, only every n-th frame is decoded and analysed, so the background model is fed at a reduced
+ * rate as well; the other frames are only grabbed. As soon as a contour comes near a line every frame is analysed again.
+ */
+public class FrameDecimator {
+    private final int idleStride;
+    private final int idleAfter;
+
+    private volatile boolean idle = false;
+    private int quietFrames;
+
+    /**
+     * @param idleStride analyse every idleStride-th frame while idle
+     * @param idleAfter  the number of analysed frames without any vehicle near the lines before going idle
+     */
+    public FrameDecimator(int idleStride, int idleAfter) {
+        this.idleStride = Math.max(1, idleStride);
+        this.idleAfter = Math.max(1, idleAfter);
+    }
+
+    /**
+     * Called by the decoder before reading the frame.
+     *
+     * @return true when the frame is to be grabbed only, without decoding and analysing it
+     */
+    public boolean skip(long index) {
+        return idle && index % idleStride != 0;
+    }
+
+    /**
+     * Called after every analysed frame.
+     */
+    public void update(boolean isVehicleNear) {
+        if (isVehicleNear) {
+            quietFrames = 0;
+            idle = false;
+        } else if (++quietFrames >= idleAfter) {
+            idle = true;
+        }
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+}
@@ -0,0 +1,41 @@
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Takes the previous frame as the background. The cheapest model: only the moving edges of a vehicle are
+ * foreground, and a vehicle which stops disappears. The history is not used.
+ */
+public class FrameDifferenceBackground implements VideoProcessor {
+
+    private Mat gray = new Mat();
+    private Mat previous = new Mat();
+    private final Mat difference = new Mat();
+    private final Mat foreground = new Mat();
+    private double imageThreshold;
+
+    public FrameDifferenceBackground(double imageThreshold) {
+        setImageThreshold(imageThreshold);
+    }
+
+    public Mat process(Mat inputImage) {
+        Imgproc.cvtColor(inputImage, gray, Imgproc.COLOR_BGR2GRAY);
+        if (previous.empty() || previous.cols() != gray.cols() || previous.rows() != gray.rows())
+            gray.copyTo(previous);
+
+        Core.absdiff(gray, previous, difference);
+        Imgproc.threshold(difference, foreground, imageThreshold, 255, Imgproc.THRESH_BINARY);
+
+        Mat swap = previous;
+        previous = gray;
+        gray = swap;
+        return foreground;
+    }
+
+    public void setImageThreshold(double imageThreshold) {
+        this.imageThreshold = imageThreshold;
+    }
+
+    public void setHistory(int history) {
+    }
+}
@@ -0,0 +1,94 @@
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+
+import java.util.List;
+
+/**
+ * The lanes and the region of interest of an {@link AnalysisConfig}, scaled from the 640x360 view in which they
+ * are drawn to the analysed frame size. An instance never changes; a new one is made when the lanes or the region
+ * are changed, and every {@link Frame} carries the geometry it has been analysed with.
+ */
+public class FrameGeometry {
+    private final List<Lane> configLanes;
+    private final Rect configRegion;
+
+    private final double scaleX;
+    private final double scaleY;
+
+    final List<Lane> lanes;
+    /**
+     * The scaled counting lines of the lanes, as pairs of points.
+     */
+    final Point[][] countingLines;
+    /**
+     * The scaled speed lines of the lanes, as pairs of points.
+     */
+    final Point[][] speedLines;
+    final Rect region;
+    final Point regionOffset;
+    final Rect nearZone;
+
+    public FrameGeometry(AnalysisConfig config, Size frameSize) {
+        this.configLanes = config.getLanes();
+        this.configRegion = config.getRegionOfInterest();
+
+        this.scaleX = frameSize.width / AnalysisConfig.FRAME_SIZE.width;
+        this.scaleY = frameSize.height / AnalysisConfig.FRAME_SIZE.height;
+
+        this.lanes = configLanes;
+        this.countingLines = new Point[lanes.size()][];
+        this.speedLines = new Point[lanes.size()][];
+        for (int l = 0; l < lanes.size(); l++) {
+            Lane lane = lanes.get(l);
+            countingLines[l] = new Point[]{scale(lane.getLineCount1()), scale(lane.getLineCount2())};
+            speedLines[l] = new Point[]{scale(lane.getLineSpeed1()), scale(lane.getLineSpeed2())};
+        }
+
+        if (configRegion == null) {
+            this.region = null;
+            this.regionOffset = null;
+        } else {
+            int x1 = (int) Math.floor(configRegion.x * scaleX);
+            int y1 = (int) Math.floor(configRegion.y * scaleY);
+            int x2 = Math.min((int) frameSize.width, (int) Math.ceil((configRegion.x + configRegion.width) * scaleX));
+            int y2 = Math.min((int) frameSize.height, (int) Math.ceil((configRegion.y + configRegion.height) * scaleY));
+            this.region = new Rect(x1, y1, x2 - x1, y2 - y1);
+            this.regionOffset = new Point(x1, y1);
+        }
+
+        if (lanes.isEmpty()) {
+            this.nearZone = null;
+        } else {
+            Rect bounds = AnalysisConfig.boundsOfLanes(lanes);
+            int margin = config.getDecimationMargin();
+            int x1 = (int) ((bounds.x - margin) * scaleX);
+            int y1 = (int) ((bounds.y - margin) * scaleY);
+            int x2 = (int) ((bounds.x + bounds.width + margin) * scaleX);
+            int y2 = (int) ((bounds.y + bounds.height + margin) * scaleY);
+            this.nearZone = new Rect(x1, y1, x2 - x1, y2 - y1);
+        }
+    }
+
+    /**
+     * @return false when the lanes or the region of the configuration have been changed since this geometry was made
+     */
+    public boolean isCurrent(AnalysisConfig config) {
+        return configLanes == config.getLanes() && configRegion == config.getRegionOfInterest();
+    }
+
+    /**
+     * Scales an area threshold given in the 640x360 view.
+     */
+    public int scaleArea(int area) {
+        return (int) (area * scaleX * scaleY);
+    }
+
+    private Point scale(Point point) {
+        if (point == null)
+            return null;
+        if (scaleX == 1 && scaleY == 1)
+            return point;
+        return new Point(point.x * scaleX, point.y * scaleY);
+    }
+}
@@ -0,0 +1,291 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoCapture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs the frame processing as a chain of threads: a decoder followed by the added stages.
+ * The stages are connected with bounded queues and every stage has exactly one thread, so frames
+ * are delivered in the order they were read. The frames travel in a fixed ring of {@link Frame}
+ * slots; when all slots are busy the decoder applies the {@link Backpressure} policy.
+ * A {@link LiveSource} takes the place of the decoder; it drops the frames itself, always handing on the freshest one.
+ */
+public class FramePipeline {
+
+    public enum Backpressure {
+        /**
+         * The decoder waits until the last stage returns a slot. Every frame is analysed.
+         */
+        BLOCK,
+        /**
+         * The decoder reads and discards frames while all slots are busy.
+         */
+        DROP
+    }
+
+    public interface Stage {
+        void process(Frame frame);
+    }
+
+    private final VideoCapture capture;
+    private final LiveSource source;
+    private final Size size;
+    private final Backpressure backpressure;
+    private final int capacity;
+
+    private final BlockingQueue<Frame> free;
+    private final List<BlockingQueue<Frame>> queues = new ArrayList<>();
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final Mat dropped = new Mat();
+    private final Frame[] drained;
+
+    private Runnable finishHandler;
+    private FrameDecimator decimator;
+    private final Object pauseLock = new Object();
+    private volatile boolean paused;
+    private volatile long droppedFrames;
+    private volatile long latencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile long latencySum;
+    private volatile long latencyCount;
+
+    public FramePipeline(VideoCapture capture, Size size, int capacity, Backpressure backpressure) {
+        this(capture, null, size, capacity, backpressure);
+    }
+
+    /**
+     * The pipeline starts and stops the source.
+     */
+    public FramePipeline(LiveSource source, Size size, int capacity) {
+        this(null, source, size, capacity, Backpressure.BLOCK);
+    }
+
+    private FramePipeline(VideoCapture capture, LiveSource source, Size size, int capacity, Backpressure backpressure) {
+        this.capture = capture;
+        this.source = source;
+        this.size = size;
+        this.capacity = capacity;
+        this.backpressure = backpressure;
+        this.free = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            free.add(new Frame());
+        }
+        this.drained = new Frame[capacity];
+    }
+
+    public FramePipeline addStage(String name, Stage stage) {
+        names.add(name);
+        stages.add(stage);
+        queues.add(new ArrayBlockingQueue<>(capacity));
+        return this;
+    }
+
+    /**
+     * @param finishHandler called from the last stage thread when the end of the video has passed the whole pipeline
+     */
+    public FramePipeline onFinish(Runnable finishHandler) {
+        this.finishHandler = finishHandler;
+        return this;
+    }
+
+    /**
+     * @param decimator decides which frames are only grabbed instead of being decoded and processed. While it is
+     *                  idle only one frame is processed at a time, so that its decision for the next frame already
+     *                  knows the previous one.
+     */
+    public FramePipeline setDecimator(FrameDecimator decimator) {
+        this.decimator = decimator;
+        return this;
+    }
+
+    public void start() {
+        if (source != null)
+            source.start();
+        threads.add(new Thread(this::decode, "decoding"));
+        for (int i = 0; i < stages.size(); i++) {
+            final int stage = i;
+            threads.add(new Thread(() -> work(stage), names.get(i)));
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Interrupts all the stages and waits until they have finished. The finish handler is not called.
+     */
+    public void stop() {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (source != null)
+            source.stop();
+    }
+
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return the number of frame slots
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the frames dropped by the decoder or by the live source
+     */
+    public long getDroppedFrames() {
+        return droppedFrames + (source == null ? 0 : source.getDroppedFrames());
+    }
+
+    /**
+     * @return the time from reading the last frame to the end of its last stage, in milliseconds
+     */
+    public double getLatencyMillis() {
+        return latencyNanos / 1e6;
+    }
+
+    public double getMeanLatencyMillis() {
+        long count = latencyCount;
+        return count == 0 ? 0 : latencySum / 1e6 / count;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos / 1e6;
+    }
+
+    private void awaitResume() throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused) {
+                pauseLock.wait();
+            }
+        }
+    }
+
+    private void decode() {
+        long index = 0;
+        try {
+            while (true) {
+                awaitResume();
+                awaitDrained();
+                Frame frame;
+                if (source != null) {
+                    frame = free.take();
+                    frame.endOfStream = !source.next(frame, size);
+                    if (!frame.endOfStream && decimator != null && decimator.skip(frame.index)) {
+                        free.put(frame);
+                        continue;
+                    }
+                } else if (decimator != null && decimator.skip(index + 1)) {
+                    if (capture.grab()) {
+                        index++;
+                        continue;
+                    }
+                    frame = free.take();
+                    frame.endOfStream = true;
+                } else {
+                    frame = backpressure == Backpressure.BLOCK ? free.take() : free.poll();
+                    if (frame == null) {
+                        capture.read(dropped);
+                        if (!dropped.empty()) {
+                            index++;
+                            droppedFrames++;
+                            continue;
+                        }
+                        frame = free.take();
+                        frame.endOfStream = true;
+                    } else {
+                        frame.endOfStream = !frame.read(capture, size, index + 1);
+                    }
+                }
+
+                queues.get(0).put(frame);
+                if (frame.endOfStream)
+                    return;
+                index++;
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    /**
+     * While the decimator is idle, waits until every frame has passed the last stage. Only the decoder takes slots,
+     * so all of them being free means nothing is in flight.
+     */
+    private void awaitDrained() throws InterruptedException {
+        if (decimator == null || !decimator.isIdle())
+            return;
+        for (int i = 0; i < capacity; i++) {
+            drained[i] = free.take();
+        }
+        for (int i = 0; i < capacity; i++) {
+            free.put(drained[i]);
+            drained[i] = null;
+        }
+    }
+
+    /**
+     * Called by the last stage only.
+     */
+    private void recordLatency(Frame frame) {
+        long latency = System.nanoTime() - frame.captureNanos;
+        latencyNanos = latency;
+        if (latency > maxLatencyNanos)
+            maxLatencyNanos = latency;
+        latencySum += latency;
+        latencyCount++;
+    }
+
+    private void work(int stage) {
+        BlockingQueue<Frame> in = queues.get(stage);
+        boolean last = stage == stages.size() - 1;
+        BlockingQueue<Frame> out = last ? free : queues.get(stage + 1);
+        try {
+            while (true) {
+                Frame frame = in.take();
+                if (frame.endOfStream) {
+                    out.put(frame);
+                    if (last && finishHandler != null) {
+                        finishHandler.run();
+                    }
+                    return;
+                }
+                stages.get(stage).process(frame);
+                if (last)
+                    recordLatency(frame);
+                out.put(frame);
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+}
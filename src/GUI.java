@@ -1,15 +1,8 @@
-import com.opencsv.CSVWriter;
-import jxl.Cell;
-import jxl.Workbook;
-import jxl.write.Number;
-import jxl.write.WritableSheet;
-import jxl.write.WritableWorkbook;
 import jxl.write.WriteException;
 import org.opencv.core.*;
 import org.opencv.core.Point;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.VideoWriter;
 import org.opencv.videoio.Videoio;
 
 import javax.swing.*;
@@ -17,11 +10,8 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.text.NumberFormat;
-import java.util.ArrayList;
-import java.util.HashMap;
 
 import static org.opencv.imgproc.Imgproc.resize;
 
@@ -29,6 +19,9 @@ import static org.opencv.imgproc.Imgproc.resize;
  * Created by Krzysiek on 2016-07-23.
  */
 public class GUI {
+    private static final Size FRAME_SIZE = AnalysisConfig.FRAME_SIZE;
+    private static final Size BGS_SIZE = new Size(430, 240);
+
     private JLabel imageView;
     private JFrame frame;
     private JFrame frameBGS;
@@ -36,58 +29,39 @@ public class GUI {
 
     private JButton playPauseButton;
     JButton loadButton;
+    private JButton streamButton;
     private JButton saveButton;
     private JButton resetButton;
     private JButton countingLineButton;
     private JButton speedLineButton;
 
 
-    private volatile boolean isPaused = true;
-    private boolean crossingLine = false;
-    private boolean crossingSpeedLine = false;
-    private int areaThreshold = 1700;
-    private double imageThreshold = 20;
-    private int history = 1500;
-    private int vehicleSizeThreshold = 20000;
+    private final PlaybackController playback = new PlaybackController();
+    private AnalysisConfig config = new AnalysisConfig();
+    private AnalysisSession session;
+    private PipelineMetrics metrics;
 
     private VideoCapture capture;
+    private LiveSource liveSource;
     private Mat currentImage = new Mat();
-    private VideoProcessor videoProcessor = new MixtureOfGaussianBackground(imageThreshold, history);
     private ImageProcessor imageProcessor = new ImageProcessor();
-    private Mat foregroundImage;
+    private final ImageIcon viewIcon = new ImageIcon();
+    private final ImageIcon previewIcon = new ImageIcon();
+    private final UiRefresher refresher = new UiRefresher(30, 5, this::showFrame, this::showPreview, this::showStatistics);
 
     private Point lineCount1;           //new Point(370,200);
     private volatile Point lineCount2;          //new Point(400,280);
     private Point lineSpeed1;           //new Point(460,200);
     private volatile Point lineSpeed2;          //new Point(490,270);
-    private int counter = 0;
-    private int lastTSM = 0;
-    private HashMap<Integer, Integer> speed = new HashMap<Integer, Integer>();
 
-    private double distanceCS = 6.0;
     private double videoFPS;
-    private int maxFPS;
-    private int whichFrame;
     private JSpinner distanceBLfield;
 
-    private File fileToSaveXLS;
-    private WritableWorkbook workbook;
-    private WritableSheet sheet;
-    private jxl.write.Label label;
-    private Number number;
-
-
-    private CSVWriter CSVwriter;
-    private ArrayList<String[]> ListCSV = new ArrayList<>();
-    private FileWriter filetoSaveCSV;
-
     private JRadioButton xlsButton;
     private JRadioButton csvButton;
     private static final String xlsWriteResults = "XLS";
     private static final String csvWriteResults = "CSV";
     private String writeFlag = xlsWriteResults;
-    private boolean isExcelToWrite = true;
-    private boolean isWritten = false;
 
     private volatile String videoPath;
     private volatile String savePath;
@@ -99,37 +73,23 @@ public class GUI {
     private JFormattedTextField lorriesAmountField;
     private JFormattedTextField lorriesSpeedField;
 
-    private int cars = 0;
-    private int vans = 0;
-    private int lorries = 0;
-
-    private double sumSpeedCar = 0;
-    private double sumSpeedVan = 0;
-    private double sumSpeedLorry = 0;
-
-    private int divisorCar = 1;
-    private int divisorVan = 1;
-    private int divisorLorry = 1;
-
     private JRadioButton onButton;
     private JRadioButton offButton;
+    private JRadioButton clipsButton;
     private static final String onSaveVideo = "On";
     private static final String offSaveVideo = "Off";
+    private static final String clipsSaveVideo = "Clips";
     private String saveFlag = offSaveVideo;
     private boolean isToSave = false;
-    private VideoWriter videoWriter;
 
     private boolean mouseListenertIsActive;
     private boolean mouseListenertIsActive2;
     private boolean startDraw;
     private Mat copiedImage;
 
-    private volatile boolean loopBreaker = false;
-
     private JButton BGSButton;
     private JSpinner imgThresholdField;
     private volatile boolean isBGSview = false;
-    private Mat ImageBGS = new Mat();
 
     private JSpinner videoHistoryField;
 
@@ -138,68 +98,28 @@ public class GUI {
     private int minutes = 1;
     private int second = 0;
 
+    private JCheckBox roiCheckBox;
+    private JComboBox<String> analysisSizeBox;
+    private JSpinner decimationField;
+    private JComboBox<String> maskFilterBox;
+    private JComboBox<String> engineBox;
+
     private JButton realTimeButton;
     private volatile boolean isProcessInRealTime = false;
     private long startTime;
     private long oneFrameDuration;
+    private long lastRenderedIndex;
 
-    private Mat foregroundClone;
+    private static final int PIPELINE_CAPACITY = 8;
+    // every frame waiting in the pipeline adds to the delay of a live source
+    private static final int LIVE_PIPELINE_CAPACITY = 2;
+    private FramePipeline pipeline;
 
     public void init() throws IOException, WriteException, InterruptedException {
+        playback.addListener(this::playbackChanged);
         setSystemLookAndFeel();
         initGUI();
-
-        while (true) {
-            if (videoPath != null && savePath != null) {
-                countingLineButton.setEnabled(true);
-                speedLineButton.setEnabled(true);
-                distanceBLfield.setEnabled(true);
-
-                resetButton.setEnabled(true);
-                break;
-            }
-        }
-
-        while (true) {
-            if (lineSpeed2 != null && lineCount2 != null) {
-
-                playPauseButton.setEnabled(true);
-                if (saveFlag.equals(onSaveVideo)) {
-                    videoWriter = new VideoWriter(savePath + "\\Video.avi", VideoWriter.fourcc('P', 'I', 'M', '1'), videoFPS, new Size(640, 360));
-                }
-                onButton.setEnabled(false);
-                offButton.setEnabled(false);
-
-
-                String xlsSavePath = savePath + "\\Results.xls";
-                fileToSaveXLS = new File(xlsSavePath);
-                try {
-                    writeToExel(fileToSaveXLS);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                } catch (WriteException e) {
-                    e.printStackTrace();
-                }
-
-                if (!isExcelToWrite) {
-                    String csvSavePath = savePath + "\\Results.csv";
-                    try {
-                        filetoSaveCSV = new FileWriter(csvSavePath);
-                        writeToCSV(filetoSaveCSV);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-                xlsButton.setEnabled(false);
-                csvButton.setEnabled(false);
-
-                break;
-            }
-        }
-
-
-        Thread mainLoop = new Thread(new Loop());
-        mainLoop.start();
+        refresher.start();
     }
 
     public void initGUI() {
@@ -218,215 +138,266 @@ public class GUI {
 
     }
 
-    public class Loop implements Runnable {
-
-        @Override
-        public void run() {
-
-            maxWaitingFPS();
-            videoProcessor = new MixtureOfGaussianBackground(imageThreshold, history);
-            if (capture.isOpened()) {
-                while (true) {
-                    if (!isPaused) {
-                        capture.read(currentImage);
-                        if (!currentImage.empty()) {
-                            resize(currentImage, currentImage, new Size(640, 360));
-                            foregroundImage = currentImage.clone();
-                            foregroundImage = videoProcessor.process(foregroundImage);
-
-                            foregroundClone = foregroundImage.clone();
-                            Imgproc.bilateralFilter(foregroundClone, foregroundImage, 2, 1600, 400);
-
-                            if (isBGSview) {
-                                resize(foregroundImage, ImageBGS, new Size(430, 240));
-                                BGSview.setIcon(new ImageIcon(imageProcessor.toBufferedImage(ImageBGS)));
-                            }
-
-                            CountVehicles countVehicles = new CountVehicles(areaThreshold, vehicleSizeThreshold, lineCount1, lineCount2, lineSpeed1, lineSpeed2, crossingLine, crossingSpeedLine);
-                            countVehicles.findAndDrawContours(currentImage, foregroundImage);
-
-                            try {
-                                count(countVehicles);
-                                speedMeasure(countVehicles);
-                            } catch (WriteException e) {
-                                e.printStackTrace();
-                            }
-
-
-                            videoRealTime();
-
-                            saveVideo();
-
-                            if (isProcessInRealTime) {
-                                long time = System.currentTimeMillis() - startTime;
-                                if (time < oneFrameDuration) {
-                                    try {
-                                        Thread.sleep(oneFrameDuration - time);
-                                    } catch (InterruptedException e) {
-                                        e.printStackTrace();
-                                    }
-                                }
-                            }
-
-                            updateView(currentImage);
-                            startTime = System.currentTimeMillis();
-
-                            if (loopBreaker)
-                                break;
-
-                        } else {
-                            if (isToSave)
-                                videoWriter.release();
-
-                            if (!isWritten) {
-                                try {
-                                    workbook.write();
-                                    workbook.close();
-                                } catch (IOException | WriteException e) {
-                                    e.printStackTrace();
-                                }
-
-                                if (!isExcelToWrite) {
-                                    try {
-                                        CSVwriter.writeAll(ListCSV);
-                                        CSVwriter.close();
-                                        new File(savePath + "\\Results.xls").delete();
-                                    } catch (IOException e) {
-                                        e.printStackTrace();
-                                    }
-                                }
-                                isWritten = true;
-                            }
-
-                            playPauseButton.setEnabled(false);
-
-                            saveButton.setEnabled(true);
-                            loadButton.setEnabled(true);
-
-                            playPauseButton.setText("Play");
-                            minutes = 1;
-                            second = 0;
-                            whichFrame = 0;
-//                            System.out.println("The video has finished!");
-                            break;
-                        }
-                    }
-                }
-            }
+    /**
+     * The pipeline finishes the playback on its own thread; the buttons are then updated on the event dispatch
+     * thread, unless the state has changed again in the meantime.
+     */
+    private void playbackChanged(PlaybackController.State previous, PlaybackController.State current) {
+        if (!SwingUtilities.isEventDispatchThread()) {
+            SwingUtilities.invokeLater(() -> {
+                if (playback.getState() == current)
+                    playbackChanged(previous, current);
+            });
+            return;
+        }
+        switch (current) {
+            case CONFIGURED:
+                configured();
+                break;
+            case PLAYING:
+                playing();
+                break;
+            case PAUSED:
+                paused();
+                break;
+            case FINISHED:
+                finished();
+                break;
         }
     }
 
+    /**
+     * Called whenever the video or the output directory has been chosen.
+     */
+    private void filesChosen() {
+        if (videoPath == null || savePath == null || playback.getState() != PlaybackController.State.IDLE)
+            return;
 
-    private void saveVideo() {
-        if (isToSave)
-            videoWriter.write(currentImage);
+        countingLineButton.setEnabled(true);
+        speedLineButton.setEnabled(true);
+        distanceBLfield.setEnabled(true);
+
+        resetButton.setEnabled(true);
+        linesChosen();
     }
 
-    public synchronized void count(CountVehicles countVehicles) throws WriteException {
-        if (countVehicles.isVehicleToAdd()) {
-            counter++;
-            lastTSM++;
-            speed.put(lastTSM, 0);
-            String vehicleType = countVehicles.classifier();
-            switch (vehicleType) {
-                case "Car":
-                    cars++;
-                    carsAmountField.setValue(cars);
-                    break;
-                case "Van":
-                    vans++;
-                    vansAmountField.setValue(vans);
-                    break;
-                case "Lorry":
-                    lorries++;
-                    lorriesAmountField.setValue(lorries);
-                    break;
-            }
+    /**
+     * Called whenever a line has been drawn. The video is configured as soon as both lines are known.
+     */
+    private void linesChosen() {
+        if (videoPath != null && savePath != null && lineCount2 != null && lineSpeed2 != null
+                && playback.getState() == PlaybackController.State.IDLE) {
+            playback.configure();
+        }
+    }
 
-            addNumberInteger(sheet, 0, counter, counter);
-            addLabel(sheet, 1, counter, vehicleType);
+    private void configured() {
+        playPauseButton.setEnabled(true);
+        resetButton.setEnabled(true);
+        onButton.setEnabled(false);
+        offButton.setEnabled(false);
+        clipsButton.setEnabled(false);
+
+        xlsButton.setEnabled(false);
+        csvButton.setEnabled(false);
+        roiCheckBox.setEnabled(false);
+        analysisSizeBox.setEnabled(false);
+        decimationField.setEnabled(false);
+        maskFilterBox.setEnabled(false);
+        engineBox.setEnabled(false);
+
+        startPipeline();
+    }
 
-        }
-        crossingLine = countVehicles.isCrossingLine();
+    private void playing() {
+        if (pipeline != null)
+            pipeline.resume();
+        playPauseButton.setText("Pause");
+
+        frameDuration();
+
+        loadButton.setEnabled(false);
+        streamButton.setEnabled(false);
+        saveButton.setEnabled(false);
+
+        onButton.setEnabled(false);
+        offButton.setEnabled(false);
+        clipsButton.setEnabled(false);
+
+        countingLineButton.setEnabled(false);
+        distanceBLfield.setEnabled(false);
+        speedLineButton.setEnabled(false);
+
+        xlsButton.setEnabled(false);
+        csvButton.setEnabled(false);
+        frame.pack();
     }
 
+    private void paused() {
+        if (pipeline != null)
+            pipeline.pause();
+        playPauseButton.setText("Play");
 
-    public synchronized void speedMeasure(CountVehicles countVehicles) throws WriteException {
-        if (!speed.isEmpty()) {
-            int firstTSM = speed.entrySet().iterator().next().getKey();
-            if (countVehicles.isToSpeedMeasure()) {
-                for (int i = firstTSM; i <= lastTSM; i++) {
-                    if (speed.containsKey(i)) {
-                        speed.put(i, (speed.get(i) + 1));
-                    }
-                }
+        loadButton.setEnabled(true);
+        streamButton.setEnabled(true);
+        saveButton.setEnabled(true);
 
-                double currentSpeed = computeSpeed(speed.get(firstTSM));
-                Cell cell = sheet.getWritableCell(1, firstTSM);
-
-                String carType = cell.getContents();
-                switch (carType) {
-                    case "Car":
-                        sumSpeedCar = sumSpeedCar + currentSpeed;
-                        double avgspeed1 = sumSpeedCar / divisorCar;
-                        divisorCar++;
-                        carsSpeedField.setValue(avgspeed1);
-                        break;
-                    case "Van":
-                        sumSpeedVan = sumSpeedVan + currentSpeed;
-                        double avgspeed2 = sumSpeedVan / divisorVan;
-                        divisorVan++;
-                        vansSpeedField.setValue(avgspeed2);
-                        break;
-                    case "Lorry":
-                        sumSpeedLorry = sumSpeedLorry + currentSpeed;
-                        double avgspeed3 = sumSpeedLorry / divisorLorry;
-                        divisorLorry++;
-                        lorriesSpeedField.setValue(avgspeed3);
-                        break;
-                }
+        onButton.setEnabled(false);
+        offButton.setEnabled(false);
+        clipsButton.setEnabled(false);
 
+        countingLineButton.setEnabled(true);
+        distanceBLfield.setEnabled(true);
+        speedLineButton.setEnabled(true);
 
-                addNumberDouble(sheet, 2, firstTSM, currentSpeed);
-                addNumberDouble(sheet, 3, firstTSM, timeInSec);
+        xlsButton.setEnabled(false);
+        csvButton.setEnabled(false);
+    }
 
-                if (!isExcelToWrite) {
-                    ListCSV.add((firstTSM + "#" + carType + "#" + currentSpeed + "#" + timeInSec).split("#"));
-                }
+    private void finished() {
+        playPauseButton.setEnabled(false);
 
-                speed.remove(firstTSM);
+        saveButton.setEnabled(true);
+        loadButton.setEnabled(true);
+        streamButton.setEnabled(true);
 
-            } else {
-                for (int i = firstTSM; i <= lastTSM; i++) {
-                    if (speed.containsKey(i)) {
-                        int currentFPS = speed.get(i);
-                        speed.put(i, (currentFPS + 1));
-                        if (currentFPS > maxFPS) {
-                            speed.remove(i);
-
-                            Cell cell = sheet.getWritableCell(1, i);
-                            String carType = cell.getContents();
-                            switch (carType) {
-                                case "Car":
-                                    cars--;
-                                    carsAmountField.setValue(cars);
-                                    break;
-                                case "Van":
-                                    vans--;
-                                    vansAmountField.setValue(vans);
-                                    break;
-                                case "Lorry":
-                                    lorries--;
-                                    lorriesAmountField.setValue(lorries);
-                                    break;
-                            }
-
-                        }
-                    }
+        playPauseButton.setText("Play");
+        minutes = 1;
+        second = 0;
+    }
+
+    private void startPipeline() {
+        frameDuration();
+        if (!capture.isOpened())
+            return;
+        if (!openSession()) {
+            playPauseButton.setEnabled(false);
+            return;
+        }
+
+        pipeline = liveSource != null
+                ? new FramePipeline(liveSource, config.getAnalysisSize(), LIVE_PIPELINE_CAPACITY)
+                : new FramePipeline(capture, config.getAnalysisSize(), PIPELINE_CAPACITY, FramePipeline.Backpressure.BLOCK);
+        pipeline.addStage("subtraction", this::subtractBackground)
+                .addStage("counting", this::countVehicles)
+                .addStage("rendering", this::render)
+                .onFinish(this::finish)
+                .setDecimator(session.getDecimator());
+        lastRenderedIndex = 0;
+        if (!playback.isPlaying())
+            pipeline.pause();
+        pipeline.start();
+    }
+
+    /**
+     * @return false when the results, the video (e.g. for want of its codec) or the clips can't be written; the user
+     * has then been told
+     */
+    private boolean openSession() {
+        config.setCountingLine(lineCount1, lineCount2);
+        config.setSpeedLine(lineSpeed1, lineSpeed2);
+        ResultsSink results = null;
+        AnalysisSession opened = null;
+        try {
+            results = ResultsSink.open(new File(savePath), config);
+            opened = new AnalysisSession(config, videoFPS, config.analysisSizeOf(capture), results, refresher);
+            if (isToSave)
+                opened.setVideoEncoder(config.createVideoEncoder(new File(savePath), videoFPS, capture));
+            if (config.isClipsToWrite())
+                opened.setClipRecorder(config.createClipRecorder(new File(savePath), videoFPS));
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            if (opened != null)
+                opened.finish();
+            else if (results != null)
+                results.close();
+            session = null;
+            JOptionPane.showMessageDialog(frame, "Couldn't write to " + savePath + ":\n" + e.getMessage(),
+                    "Analysis", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        session = opened;
+        if (metrics != null)
+            metrics.close();
+        // -DmetricsLog=N prints the metrics every N seconds
+        metrics = new PipelineMetrics(new File(videoPath).getName()).register().startLogging(Integer.getInteger("metricsLog", 0));
+        session.setMetrics(metrics);
+        return true;
+    }
+
+    private void subtractBackground(Frame frame) {
+        session.subtractBackground(frame);
+
+        frame.hasPreview = isBGSview;
+        if (frame.hasPreview)
+            resize(frame.getForeground(), frame.getPreview(), BGS_SIZE);
+    }
+
+    private void countVehicles(Frame frame) {
+        session.analyse(frame);
+    }
+
+    private void render(Frame frame) {
+        long start = System.nanoTime();
+        if (isBGSview && frame.hasPreview)
+            refresher.publishPreview(frame.getPreview());
+        long rendering = System.nanoTime() - start;
+
+        if (isProcessInRealTime && liveSource == null) {
+            // the frames skipped by the decimator are part of the waiting time
+            long duration = oneFrameDuration * Math.max(1, frame.getIndex() - lastRenderedIndex);
+            long time = System.currentTimeMillis() - startTime;
+            if (time < duration) {
+                try {
+                    Thread.sleep(duration - time);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
                 }
             }
         }
-        crossingSpeedLine = countVehicles.isCrossingSpeedLine();
+
+        start = System.nanoTime();
+        refresher.publishFrame(frame.getDisplay(FRAME_SIZE));
+        metrics.record(PipelineMetrics.Stage.RENDER, rendering + System.nanoTime() - start);
+        metrics.setDroppedFrames(pipeline.getDroppedFrames());
+        metrics.setFrameBufferBytes(frame.nativeBytes() * pipeline.getCapacity());
+        lastRenderedIndex = frame.getIndex();
+        startTime = System.currentTimeMillis();
+    }
+
+    private void finish() {
+        reportLiveSource();
+
+        session.finish();
+        playback.finish();
+    }
+
+    private void reportLiveSource() {
+        if (liveSource != null && pipeline != null) {
+            System.out.println(String.format("%s: %d frames dropped, latency %.0f ms on average, %.0f ms at most",
+                    liveSource.getSource(), pipeline.getDroppedFrames(), pipeline.getMeanLatencyMillis(), pipeline.getMaxLatencyMillis()));
+        }
+    }
+
+    private void showStatistics(UiRefresher.Statistics statistics) {
+        carsAmountField.setValue(statistics.cars);
+        vansAmountField.setValue(statistics.vans);
+        lorriesAmountField.setValue(statistics.lorries);
+        carsSpeedField.setValue(statistics.carsSpeed);
+        vansSpeedField.setValue(statistics.vansSpeed);
+        lorriesSpeedField.setValue(statistics.lorriesSpeed);
+        timeInSec = statistics.timeInSec;
+        setTimeInMinutes();
+    }
+
+    private void showFrame(Mat image) {
+        image.copyTo(currentImage);
+        updateView(currentImage);
+    }
+
+    private void showPreview(Mat image) {
+        if (isBGSview)
+            showImage(BGSview, previewIcon, image);
     }
 
     private JFrame createJFrame(String windowName) {
@@ -459,6 +430,11 @@ public class GUI {
         setupBGSvisibility(frame);
         currentTime(frame);
         setupRealTime(frame);
+        setupRegionOfInterest(frame);
+        setupAnalysisSize(frame);
+        setupDecimation(frame);
+        setupMaskFilter(frame);
+        setupEngine(frame);
 
         frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         return frame;
@@ -477,8 +453,8 @@ public class GUI {
 
         frame.add(imageView, c);
 
-        Mat localImage = new Mat(new Size(640, 360), CvType.CV_8UC3, new Scalar(255, 255, 255));
-        resize(localImage, localImage, new Size(640, 360));
+        Mat localImage = new Mat(FRAME_SIZE, CvType.CV_8UC3, new Scalar(255, 255, 255));
+        resize(localImage, localImage, FRAME_SIZE);
         updateView(localImage);
     }
 
@@ -488,43 +464,10 @@ public class GUI {
         playPauseButton.setPreferredSize(new Dimension(100, 40));
 
         playPauseButton.addActionListener(event -> {
-            if (!isPaused) {
-                isPaused = true;
-                playPauseButton.setText("Play");
-
-                loadButton.setEnabled(true);
-                saveButton.setEnabled(true);
-
-                onButton.setEnabled(false);
-                offButton.setEnabled(false);
-
-                countingLineButton.setEnabled(true);
-                distanceBLfield.setEnabled(true);
-                speedLineButton.setEnabled(true);
-
-                xlsButton.setEnabled(false);
-                csvButton.setEnabled(false);
-
-            } else {
-                isPaused = false;
-                playPauseButton.setText("Pause");
-
-                maxWaitingFPS();
-
-                loadButton.setEnabled(false);
-                saveButton.setEnabled(false);
-
-                onButton.setEnabled(false);
-                offButton.setEnabled(false);
-
-                countingLineButton.setEnabled(false);
-                distanceBLfield.setEnabled(false);
-                speedLineButton.setEnabled(false);
-
-                xlsButton.setEnabled(false);
-                csvButton.setEnabled(false);
-                frame.pack();
-            }
+            if (playback.isPlaying())
+                playback.pause();
+            else
+                playback.play();
         });
         playPauseButton.setAlignmentX(Component.LEFT_ALIGNMENT);
 
@@ -560,11 +503,13 @@ public class GUI {
 
                 videoPath = file.getPath();
                 field.setText(videoPath);
+                closeLiveSource();
                 capture = new VideoCapture(videoPath);
                 capture.read(currentImage);
                 videoFPS = capture.get(Videoio.CAP_PROP_FPS);
-                resize(currentImage, currentImage, new Size(640, 360));
+                resize(currentImage, currentImage, FRAME_SIZE);
                 updateView(currentImage);
+                filesChosen();
 
             }
         });
@@ -584,6 +529,48 @@ public class GUI {
         c.gridy = 0;
         c.gridwidth = 3;
         frame.add(field, c);
+
+        streamButton = new JButton("Open a stream");
+        streamButton.addActionListener(event -> {
+            String source = JOptionPane.showInputDialog(frame,
+                    "Camera number, stream URL, or a video file to replay at its own speed:", "Open a stream", JOptionPane.QUESTION_MESSAGE);
+            if (source == null || source.trim().isEmpty())
+                return;
+
+            LiveSource live = LiveSource.open(source);
+            if (!live.isOpened()) {
+                JOptionPane.showMessageDialog(frame, "Couldn't open " + source, "Open a stream", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            videoPath = live.getSource();
+            field.setText(videoPath);
+            closeLiveSource();
+            openLiveSource(live);
+            filesChosen();
+        });
+        c.insets = new Insets(0, 0, 0, 10);
+        c.gridx = 7;
+        c.gridy = 0;
+        c.gridwidth = 1;
+        frame.add(streamButton, c);
+    }
+
+    /**
+     * Shows the first frame of the source; the grab thread is started with the pipeline.
+     */
+    private void openLiveSource(LiveSource live) {
+        liveSource = live;
+        capture = live.getCapture();
+        capture.read(currentImage);
+        videoFPS = live.getFPS();
+        resize(currentImage, currentImage, FRAME_SIZE);
+        updateView(currentImage);
+    }
+
+    private void closeLiveSource() {
+        if (liveSource != null)
+            liveSource.stop();
+        liveSource = null;
     }
 
     private void saveFile(JFrame frame) {
@@ -609,6 +596,7 @@ public class GUI {
 
                 savePath = file.getPath();
                 field.setText(savePath);
+                filesChosen();
 
             }
         });
@@ -752,74 +740,31 @@ public class GUI {
 
 
     private void updateView(Mat image) {
-        imageView.setIcon(new ImageIcon(imageProcessor.toBufferedImage(image)));
-    }
-
-    public void maxWaitingFPS() {
-        double time = (distanceCS / 3);
-        double max = videoFPS * time;
-        maxFPS = (int) max;
-
-        oneFrameDuration = 1000 / (long) videoFPS;
-    }
-
-    public void writeToCSV(FileWriter fileWriter) throws IOException {
-        CSVwriter = new CSVWriter(fileWriter, '\t');
-        ListCSV.add("No.#Vehicle type#Speed [km/h]#Video time [sec]".split("#"));
+        showImage(imageView, viewIcon, image);
     }
 
-    public void writeToExel(File file) throws IOException, WriteException {
-
-        workbook = Workbook.createWorkbook(file);
-        sheet = workbook.createSheet("Counting", 0);
-        addLabel(sheet, 0, 0, "No.");
-        addLabel(sheet, 1, 0, "Vehicle type");
-        addLabel(sheet, 2, 0, "Speed [km/h]");
-        addLabel(sheet, 3, 0, "Video time [sec]");
-    }
-
-    private void addLabel(WritableSheet sheet, int column, int row, String text)
-            throws WriteException {
-        label = new jxl.write.Label(column, row, text);
-        sheet.addCell(label);
-    }
-
-    private void addNumberInteger(WritableSheet sheet, int column, int row, Integer integer)
-            throws WriteException {
-
-        number = new Number(column, row, integer);
-        sheet.addCell(number);
+    /**
+     * Shows the image in the label through the icon of the label, which is reused for every frame.
+     */
+    private void showImage(JLabel label, ImageIcon icon, Mat image) {
+        icon.setImage(imageProcessor.toBufferedImage(image));
+        if (label.getIcon() != icon)
+            label.setIcon(icon);
+        else
+            label.repaint();
     }
 
-    private void addNumberDouble(WritableSheet sheet, int column, int row, Double d)
-            throws WriteException {
-
-        number = new Number(column, row, d);
-        sheet.addCell(number);
-    }
-
-    public double computeSpeed(int speedPFS) {
-        double duration = speedPFS / videoFPS;
-        double v = (distanceCS / duration) * 3.6;
-        return v;
-    }
-
-    private double videoRealTime() {
-        whichFrame++;
-        timeInSec = whichFrame / videoFPS;
-        setTimeInMinutes();
-        return timeInSec;
+    public void frameDuration() {
+        oneFrameDuration = 1000 / (long) videoFPS;
     }
 
     private void setTimeInMinutes() {
         if (timeInSec < 60) {
             currentTimeField.setValue((int) timeInSec + " sec");
-        } else if (second < 60) {
-            second = (int) timeInSec - (60 * minutes);
-            currentTimeField.setValue(minutes + " min " + second + " sec");
         } else {
-            second = 0;
-            minutes++;
+            minutes = (int) timeInSec / 60;
+            second = (int) timeInSec % 60;
+            currentTimeField.setValue(minutes + " min " + second + " sec");
         }
     }
 
@@ -842,28 +787,41 @@ public class GUI {
                     frame, "Are you sure you want to reset the video?",
                     "Reset", JOptionPane.YES_NO_OPTION);
             if (n == JOptionPane.YES_OPTION) {
-                loopBreaker = true;
-
-                capture = new VideoCapture(videoPath);
-                capture.read(currentImage);
-                videoFPS = capture.get(Videoio.CAP_PROP_FPS);
-                resize(currentImage, currentImage, new Size(640, 360));
-                updateView(currentImage);
+                if (pipeline != null)
+                    pipeline.stop();
+                reportLiveSource();
+                refresher.clear();
+
+                if (liveSource != null) {
+                    liveSource.stop();
+                    openLiveSource(LiveSource.open(videoPath));
+                } else {
+                    capture = new VideoCapture(videoPath);
+                    capture.read(currentImage);
+                    videoFPS = capture.get(Videoio.CAP_PROP_FPS);
+                    resize(currentImage, currentImage, FRAME_SIZE);
+                    updateView(currentImage);
+                }
 
                 currentTimeField.setValue("0 sec");
 
-                isPaused = true;
+                playback.reset();
                 playPauseButton.setText("Play");
                 playPauseButton.setEnabled(false);
-                videoProcessor = new MixtureOfGaussianBackground(imageThreshold, history);
 
                 resetButton.setEnabled(false);
 
                 onButton.setEnabled(true);
                 offButton.setEnabled(true);
+                clipsButton.setEnabled(true);
 
                 xlsButton.setEnabled(true);
                 csvButton.setEnabled(true);
+                roiCheckBox.setEnabled(true);
+                analysisSizeBox.setEnabled(true);
+                decimationField.setEnabled(true);
+                maskFilterBox.setEnabled(true);
+                engineBox.setEnabled(true);
 
                 countingLineButton.setEnabled(true);
                 speedLineButton.setEnabled(true);
@@ -872,10 +830,11 @@ public class GUI {
                 lineCount2 = null;
                 lineSpeed1 = null;
                 lineSpeed2 = null;
+                config.setCountingLine(null, null);
+                config.setSpeedLine(null, null);
 
                 minutes = 1;
                 second = 0;
-                whichFrame = 0;
                 timeInSec = 0;
 
                 carsAmountField.setValue(new Integer(0));
@@ -885,47 +844,8 @@ public class GUI {
                 lorriesAmountField.setValue(new Integer(0));
                 lorriesSpeedField.setValue(new Integer(0));
 
-                cars = 0;
-                vans = 0;
-                lorries = 0;
-
-                sumSpeedCar = 0;
-                sumSpeedVan = 0;
-                sumSpeedLorry = 0;
-
-                divisorCar = 1;
-                divisorVan = 1;
-                divisorLorry = 1;
-
-                counter = 0;
-                lastTSM = 0;
-
-                if (isToSave)
-                    videoWriter.release();
-
-                if (!isWritten) {
-                    try {
-                        workbook.write();
-                        workbook.close();
-                    } catch (IOException | WriteException e) {
-                        e.printStackTrace();
-                    }
-                    if (!isExcelToWrite) {
-                        try {
-                            CSVwriter.writeAll(ListCSV);
-                            CSVwriter.close();
-                            new File(savePath + "\\Results.xls").delete();
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-
-                    }
-                    isWritten = true;
-                }
-
-                Thread reseting = new Thread(new Reseting());
-                reseting.start();
-                loopBreaker = false;
+                if (session != null)
+                    session.finish();
             }
 
         });
@@ -942,55 +862,6 @@ public class GUI {
         frame.add(resetButton, c);
     }
 
-    private class Reseting implements Runnable {
-
-        @Override
-        public void run() {
-
-            while (true) {
-                if (lineSpeed2 != null && lineCount2 != null) {
-                    playPauseButton.setEnabled(true);
-                    resetButton.setEnabled(true);
-
-                    onButton.setEnabled(false);
-                    offButton.setEnabled(false);
-
-                    xlsButton.setEnabled(false);
-                    csvButton.setEnabled(false);
-
-                    if (saveFlag.equals(onSaveVideo)) {
-                        videoWriter = new VideoWriter(savePath + "\\Video.avi", VideoWriter.fourcc('P', 'I', 'M', '1'), videoFPS, new Size(640, 360));
-                    }
-
-                    Thread mainLoop = new Thread(new Loop());
-                    mainLoop.start();
-
-                    String xlsSavePath = savePath + "\\Results.xls";
-                    fileToSaveXLS = new File(xlsSavePath);
-                    try {
-                        writeToExel(fileToSaveXLS);
-                    } catch (IOException | WriteException e) {
-                        e.printStackTrace();
-                    }
-
-                    if (!isExcelToWrite) {
-                        String csvSavePath = savePath + "\\Results.csv";
-                        try {
-                            filetoSaveCSV = new FileWriter(csvSavePath);
-                            writeToCSV(filetoSaveCSV);
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                    isWritten = false;
-
-                    break;
-                }
-            }
-        }
-    }
-
-
     private void setupSaveVideo(JFrame frame) {
 
         onButton = new JRadioButton(onSaveVideo);
@@ -1005,17 +876,26 @@ public class GUI {
         offButton.setSelected(true);
         offButton.setAlignmentX(Component.LEFT_ALIGNMENT);
 
+        clipsButton = new JRadioButton(clipsSaveVideo);
+        clipsButton.setMnemonic(KeyEvent.VK_C);
+        clipsButton.setActionCommand(clipsSaveVideo);
+        clipsButton.setSelected(false);
+        clipsButton.setAlignmentX(Component.LEFT_ALIGNMENT);
+
         ButtonGroup group = new ButtonGroup();
         group.add(onButton);
         group.add(offButton);
+        group.add(clipsButton);
 
         ActionListener operationChangeListener = event -> {
             saveFlag = event.getActionCommand();
             isToSave = (saveFlag.equals(onSaveVideo));
+            config.setClipsToWrite(saveFlag.equals(clipsSaveVideo));
         };
 
         onButton.addActionListener(operationChangeListener);
         offButton.addActionListener(operationChangeListener);
+        clipsButton.addActionListener(operationChangeListener);
 
         GridLayout gridRowLayout = new GridLayout(1, 0);
         JPanel saveOperationPanel = new JPanel(gridRowLayout);
@@ -1024,6 +904,7 @@ public class GUI {
 
         saveOperationPanel.add(onButton);
         saveOperationPanel.add(offButton);
+        saveOperationPanel.add(clipsButton);
 
         GridBagConstraints c = new GridBagConstraints();
         c.fill = GridBagConstraints.HORIZONTAL;
@@ -1057,7 +938,7 @@ public class GUI {
 
         ActionListener operationChangeListener = event -> {
             writeFlag = event.getActionCommand();
-            isExcelToWrite = (writeFlag.equals(xlsWriteResults)) ? true : false;
+            config.setExcelToWrite(writeFlag.equals(xlsWriteResults));
         };
 
         xlsButton.addActionListener(operationChangeListener);
@@ -1087,12 +968,12 @@ public class GUI {
         JLabel distanceBLLabel = new JLabel("Distance between lines [m]:", JLabel.RIGHT);
         distanceBLLabel.setFont(new Font("defaut", Font.BOLD, 11));
 
-        distanceBLfield = new JSpinner(new SpinnerNumberModel(distanceCS, 0, 10, 0.5));
+        distanceBLfield = new JSpinner(new SpinnerNumberModel(config.getDistanceCS(), 0, 10, 0.5));
         distanceBLfield.setAlignmentX(Component.LEFT_ALIGNMENT);
         distanceBLfield.setPreferredSize(new Dimension(55, 26));
 
         distanceBLfield.addChangeListener(e ->
-                distanceCS = (double) distanceBLfield.getValue());
+                config.setDistanceCS((double) distanceBLfield.getValue()));
 
         GridBagConstraints c = new GridBagConstraints();
         c.fill = GridBagConstraints.HORIZONTAL;
@@ -1168,12 +1049,14 @@ public class GUI {
                 startDraw = true;
             } else {
                 lineCount2 = point;
+                config.setCountingLine(lineCount1, lineCount2);
                 startDraw = false;
                 mouseListenertIsActive = false;
                 countingLineButton.setEnabled(true);
                 speedLineButton.setEnabled(true);
                 imageView.removeMouseListener(ml);
                 imageView.removeMouseMotionListener(ml2);
+                linesChosen();
             }
 
         } else if (event == 0 && startDraw) {
@@ -1192,12 +1075,14 @@ public class GUI {
                 startDraw = true;
             } else {
                 lineSpeed2 = point;
+                config.setSpeedLine(lineSpeed1, lineSpeed2);
                 startDraw = false;
                 mouseListenertIsActive2 = false;
                 countingLineButton.setEnabled(true);
                 speedLineButton.setEnabled(true);
                 imageView.removeMouseListener(ml);
                 imageView.removeMouseMotionListener(ml2);
+                linesChosen();
             }
 
         } else if (event == 0 && startDraw) {
@@ -1248,12 +1133,13 @@ public class GUI {
     private void setupImageThreshold(JFrame frame) {
         JLabel imgThresholdLabel = new JLabel("Video threshold:", JLabel.RIGHT);
 
-        imgThresholdField = new JSpinner(new SpinnerNumberModel(imageThreshold, 0, 10000, 5));
+        imgThresholdField = new JSpinner(new SpinnerNumberModel(config.getImageThreshold(), 0, 10000, 5));
         imgThresholdField.setAlignmentX(Component.LEFT_ALIGNMENT);
 
         imgThresholdField.addChangeListener(e -> {
-            imageThreshold = (double) imgThresholdField.getValue();
-            videoProcessor.setImageThreshold(imageThreshold);
+            config.setImageThreshold((double) imgThresholdField.getValue());
+            if (session != null)
+                session.getVideoProcessor().setImageThreshold(config.getImageThreshold());
         });
 
         GridBagConstraints c = new GridBagConstraints();
@@ -1272,12 +1158,13 @@ public class GUI {
     private void setupVideoHistory(JFrame frame) {
         JLabel videoHistoryLabel = new JLabel("History:", JLabel.RIGHT);
 
-        videoHistoryField = new JSpinner(new SpinnerNumberModel(history, 0, 100000, 50));
+        videoHistoryField = new JSpinner(new SpinnerNumberModel(config.getHistory(), 0, 100000, 50));
         videoHistoryField.setAlignmentX(Component.LEFT_ALIGNMENT);
 
         videoHistoryField.addChangeListener(e -> {
-            history = (int) videoHistoryField.getValue();
-            videoProcessor.setHistory(history);
+            config.setHistory((int) videoHistoryField.getValue());
+            if (session != null)
+                session.getVideoProcessor().setHistory(config.getHistory());
         });
 
         GridBagConstraints c = new GridBagConstraints();
@@ -1297,11 +1184,11 @@ public class GUI {
     private void setupAreaThreshold(JFrame frame) {
         JLabel areaThresholdLabel = new JLabel("Area threshold:", JLabel.RIGHT);
 
-        final JSpinner areaThresholdField = new JSpinner(new SpinnerNumberModel(areaThreshold, 0, 100000, 50));
+        final JSpinner areaThresholdField = new JSpinner(new SpinnerNumberModel(config.getAreaThreshold(), 0, 100000, 50));
         areaThresholdField.setAlignmentX(Component.LEFT_ALIGNMENT);
 
         areaThresholdField.addChangeListener(e ->
-                areaThreshold = (int) areaThresholdField.getValue());
+                config.setAreaThreshold((int) areaThresholdField.getValue()));
 
         GridBagConstraints c = new GridBagConstraints();
 
@@ -1320,11 +1207,11 @@ public class GUI {
     private void setupVehicleSizeThreshold(JFrame frame) {
         JLabel vehicleSizeThresholdLabel = new JLabel("Vehicle size threshold:", JLabel.RIGHT);
 
-        final JSpinner vehicleSizeThresholdField = new JSpinner(new SpinnerNumberModel(vehicleSizeThreshold, 0, 100000, 100));
+        final JSpinner vehicleSizeThresholdField = new JSpinner(new SpinnerNumberModel(config.getVehicleSizeThreshold(), 0, 100000, 100));
         vehicleSizeThresholdField.setAlignmentX(Component.LEFT_ALIGNMENT);
 
         vehicleSizeThresholdField.addChangeListener(e ->
-                vehicleSizeThreshold = (int) vehicleSizeThresholdField.getValue());
+                config.setVehicleSizeThreshold((int) vehicleSizeThresholdField.getValue()));
 
         GridBagConstraints c = new GridBagConstraints();
 
@@ -1344,8 +1231,8 @@ public class GUI {
         frameBGS = new JFrame("BGS View");
         BGSview = new JLabel();
         frameBGS.add(BGSview);
-        Mat localImage = new Mat(new Size(430, 240), CvType.CV_8UC3, new Scalar(255, 255, 255));
-        BGSview.setIcon(new ImageIcon(imageProcessor.toBufferedImage(localImage)));
+        Mat localImage = new Mat(BGS_SIZE, CvType.CV_8UC3, new Scalar(255, 255, 255));
+        showImage(BGSview, previewIcon, localImage);
         frameBGS.setVisible(true);
         frameBGS.pack();
 
@@ -1429,6 +1316,100 @@ public class GUI {
         frame.add(realTimeButton, c);
     }
 
+    private void setupRegionOfInterest(JFrame frame) {
+        roiCheckBox = new JCheckBox("Analyse only around the lines");
+        roiCheckBox.setSelected(config.isRoiAuto());
+        roiCheckBox.addActionListener(event -> config.setRoiAuto(roiCheckBox.isSelected()));
+
+        GridBagConstraints c = new GridBagConstraints();
+        c.insets = new Insets(10, 0, 0, 0);
+        c.gridx = 0;
+        c.gridy = 14;
+        c.gridwidth = 2;
+
+        frame.add(roiCheckBox, c);
+    }
+
+    private void setupAnalysisSize(JFrame frame) {
+        JLabel analysisSizeLabel = new JLabel("Analysis resolution:", JLabel.RIGHT);
+
+        analysisSizeBox = new JComboBox<>(new String[]{"320x180", "480x270", "640x360", "Native"});
+        analysisSizeBox.setSelectedItem("640x360");
+        analysisSizeBox.addActionListener(event ->
+                config.setAnalysisSize(AnalysisConfig.parseSize((String) analysisSizeBox.getSelectedItem())));
+
+        GridBagConstraints c = new GridBagConstraints();
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.insets = new Insets(10, 0, 10, 0);
+        c.gridx = 0;
+        c.gridy = 15;
+        c.gridwidth = 1;
+        frame.add(analysisSizeLabel, c);
+
+        c.fill = GridBagConstraints.NONE;
+        c.gridx = 1;
+        frame.add(analysisSizeBox, c);
+    }
+
+    private void setupDecimation(JFrame frame) {
+        JLabel decimationLabel = new JLabel("Idle frame step:", JLabel.RIGHT);
+
+        decimationField = new JSpinner(new SpinnerNumberModel(config.getDecimation(), 1, 25, 1));
+        decimationField.addChangeListener(e -> config.setDecimation((int) decimationField.getValue()));
+
+        GridBagConstraints c = new GridBagConstraints();
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.insets = new Insets(0, 0, 10, 0);
+        c.gridx = 0;
+        c.gridy = 16;
+        c.gridwidth = 1;
+        frame.add(decimationLabel, c);
+
+        c.fill = GridBagConstraints.NONE;
+        c.gridx = 1;
+        frame.add(decimationField, c);
+    }
+
+    private void setupMaskFilter(JFrame frame) {
+        JLabel maskFilterLabel = new JLabel("Mask filter:", JLabel.RIGHT);
+
+        maskFilterBox = new JComboBox<>(new String[]{"bilateral", "none", "median:5", "open:3,close:5", "median:5,close:5"});
+        maskFilterBox.setSelectedItem(config.getMaskFilter());
+        maskFilterBox.addActionListener(event -> config.setMaskFilter((String) maskFilterBox.getSelectedItem()));
+
+        GridBagConstraints c = new GridBagConstraints();
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.insets = new Insets(0, 0, 10, 0);
+        c.gridx = 0;
+        c.gridy = 17;
+        c.gridwidth = 1;
+        frame.add(maskFilterLabel, c);
+
+        c.fill = GridBagConstraints.NONE;
+        c.gridx = 1;
+        frame.add(maskFilterBox, c);
+    }
+
+    private void setupEngine(JFrame frame) {
+        JLabel engineLabel = new JLabel("Background model:", JLabel.RIGHT);
+
+        engineBox = new JComboBox<>(VideoProcessor.ENGINES);
+        engineBox.setSelectedItem(config.getEngine());
+        engineBox.addActionListener(event -> config.setEngine((String) engineBox.getSelectedItem()));
+
+        GridBagConstraints c = new GridBagConstraints();
+        c.fill = GridBagConstraints.HORIZONTAL;
+        c.insets = new Insets(0, 0, 10, 0);
+        c.gridx = 0;
+        c.gridy = 18;
+        c.gridwidth = 1;
+        frame.add(engineLabel, c);
+
+        c.fill = GridBagConstraints.NONE;
+        c.gridx = 1;
+        frame.add(engineBox, c);
+    }
+
     private void setSystemLookAndFeel() {
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -7,19 +7,44 @@ import java.awt.image.DataBufferByte;
  * Created by Krzysiek on 2016-07-23.
  */
 public class ImageProcessor {
+    // the view and the preview are converted alternately, so a few images of different shapes are kept
+    private static final int SLOTS = 4;
 
-    public BufferedImage toBufferedImage(Mat matrix) {
+    private final BufferedImage[] images = new BufferedImage[SLOTS];
+    private final int[] widths = new int[SLOTS];
+    private final int[] heights = new int[SLOTS];
+    private final int[] types = new int[SLOTS];
+    private int next;
+
+    /**
+     * Copies the pixels of the matrix into a BufferedImage kept for its size and number of channels.
+     * The returned image is overwritten by the next conversion of a matrix of the same size and channels.
+     */
+    public synchronized BufferedImage toBufferedImage(Mat matrix) {
         int type = BufferedImage.TYPE_BYTE_GRAY;
         if (matrix.channels() > 1) {
             type = BufferedImage.TYPE_3BYTE_BGR;
         }
-        int bufferSize = matrix.channels() * matrix.cols() * matrix.rows();
-        byte[] buffer = new byte[bufferSize];
-        matrix.get(0, 0, buffer); // get all the pixels
-        BufferedImage image = new BufferedImage(matrix.cols(), matrix.rows(), type);
+        int width = matrix.cols();
+        int height = matrix.rows();
+        BufferedImage image = null;
+        for (int slot = 0; slot < SLOTS; slot++) {
+            if (images[slot] != null && widths[slot] == width && heights[slot] == height && types[slot] == type) {
+                image = images[slot];
+                break;
+            }
+        }
+        if (image == null) {
+            image = new BufferedImage(width, height, type);
+            images[next] = image;
+            widths[next] = width;
+            heights[next] = height;
+            types[next] = type;
+            next = (next + 1) % SLOTS;
+        }
         final byte[] targetPixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-        System.arraycopy(buffer, 0, targetPixels, 0, buffer.length);
+        matrix.get(0, 0, targetPixels); // get all the pixels straight into the raster
         return image;
     }
 
-}
\ No newline at end of file
+}
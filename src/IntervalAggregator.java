@@ -0,0 +1,189 @@
+import com.opencsv.CSVWriter;
+import jxl.write.WriteException;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Passes the results on and sums them up per time interval, lane and vehicle type into "Summary.csv": the number of
+ * counted vehicles and the number, mean, minimum and maximum of the measured speeds. A vehicle is counted in the
+ * interval in which it crossed the counting line, a speed in the interval in which it was measured.
+ * <p>
+ * A vehicle which is taken back is left out of the interval it was counted in again.
+ * <p>
+ * The events arrive in the order of their video time, so only the last two intervals of every length are kept. An
+ * interval is written when an event {@link #TAKE_BACK_SECONDS} after its end arrives, as a vehicle is taken back
+ * within seconds of its counting. Intervals without any vehicle are written with zeros.
+ */
+public class IntervalAggregator implements ResultsSink {
+    static final String SUMMARY = "Summary.csv";
+    static final int TAKE_BACK_SECONDS = 30;
+
+    private final ResultsSink results;
+    private final List<String> laneNames;
+    private final int[] minutes;
+    private final int types = CountVehicles.VEHICLE_TYPES.length;
+    private final CSVWriter writer;
+
+    // per interval length, the oldest open interval and the latest one with an event; the bins of an interval are
+    // in the slot of its parity and indexed by lane * types + type
+    private final long[] current;
+    private final long[] latest;
+    private final int[][][] counts;
+    private final int[][][] measured;
+    private final double[][][] sums;
+    private final double[][][] minimums;
+    private final double[][][] maximums;
+
+    private boolean isClosed = false;
+
+    /**
+     * @param results   receives every event unchanged
+     * @param minutes   the lengths of the intervals, at least one minute
+     * @param laneNames the names of the lanes, in the order of their indices
+     */
+    public IntervalAggregator(ResultsSink results, File directory, int[] minutes, List<String> laneNames) throws IOException {
+        this.results = results;
+        this.laneNames = laneNames;
+        this.minutes = minutes.clone();
+        int bins = Math.max(1, laneNames.size()) * types;
+        this.current = new long[minutes.length];
+        this.latest = new long[minutes.length];
+        this.counts = new int[minutes.length][2][bins];
+        this.measured = new int[minutes.length][2][bins];
+        this.sums = new double[minutes.length][2][bins];
+        this.minimums = new double[minutes.length][2][bins];
+        this.maximums = new double[minutes.length][2][bins];
+        for (int i = 0; i < minutes.length; i++) {
+            reset(i, 0);
+            reset(i, 1);
+        }
+
+        writer = new CSVWriter(new FileWriter(new File(directory, SUMMARY)), '\t');
+        writer.writeNext(("Interval [min]#Start [sec]#End [sec]#Lane#Vehicle type#Vehicles#Measured speeds#" +
+                "Mean speed [km/h]#Min speed [km/h]#Max speed [km/h]").split("#"));
+    }
+
+    @Override
+    public synchronized void addVehicle(int lane, int row, String vehicleType, double timeInSec) throws WriteException {
+        results.addVehicle(lane, row, vehicleType, timeInSec);
+        int bin = lane * types + typeIndex(vehicleType);
+        for (int i = 0; i < minutes.length; i++) {
+            counts[i][advance(i, timeInSec)][bin]++;
+        }
+    }
+
+    @Override
+    public synchronized void addSpeed(int lane, int row, String vehicleType, double speed, double timeInSec) throws WriteException {
+        results.addSpeed(lane, row, vehicleType, speed, timeInSec);
+        int bin = lane * types + typeIndex(vehicleType);
+        for (int i = 0; i < minutes.length; i++) {
+            int slot = advance(i, timeInSec);
+            measured[i][slot][bin]++;
+            sums[i][slot][bin] += speed;
+            minimums[i][slot][bin] = Math.min(minimums[i][slot][bin], speed);
+            maximums[i][slot][bin] = Math.max(maximums[i][slot][bin], speed);
+        }
+    }
+
+    /**
+     * A vehicle counted in an interval which has already been written stays in it.
+     */
+    @Override
+    public synchronized void takeBack(int lane, int row, String vehicleType, double countedInSec, double timeInSec) throws WriteException {
+        results.takeBack(lane, row, vehicleType, countedInSec, timeInSec);
+        int bin = lane * types + typeIndex(vehicleType);
+        for (int i = 0; i < minutes.length; i++) {
+            advance(i, timeInSec);
+            long counted = (long) (countedInSec / (60 * minutes[i]));
+            if (counted >= current[i] && counted <= latest[i])
+                counts[i][(int) (counted & 1)][bin]--;
+        }
+    }
+
+    /**
+     * Writes the open intervals, up to the last event, and closes the results.
+     */
+    @Override
+    public synchronized void close() {
+        if (isClosed)
+            return;
+
+        for (int i = 0; i < minutes.length; i++) {
+            for (long interval = current[i]; interval <= latest[i]; interval++) {
+                write(i, interval);
+            }
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        results.close();
+        isClosed = true;
+    }
+
+    /**
+     * Writes the intervals of the given length which ended {@link #TAKE_BACK_SECONDS} before the time.
+     *
+     * @return the slot of the interval containing the time
+     */
+    private int advance(int i, double timeInSec) {
+        int seconds = 60 * minutes[i];
+        long index = (long) (timeInSec / seconds);
+        boolean isWritten = false;
+        while (timeInSec >= (current[i] + 1) * seconds + TAKE_BACK_SECONDS) {
+            write(i, current[i]);
+            reset(i, (int) (current[i] & 1));
+            current[i]++;
+            isWritten = true;
+        }
+        latest[i] = Math.max(latest[i], index);
+        if (isWritten) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return (int) (index & 1);
+    }
+
+    private void write(int i, long interval) {
+        int seconds = 60 * minutes[i];
+        int slot = (int) (interval & 1);
+        String start = String.valueOf(interval * seconds);
+        String end = String.valueOf((interval + 1) * seconds);
+        for (int lane = 0; lane < Math.max(1, laneNames.size()); lane++) {
+            String laneName = laneNames.isEmpty() ? Lane.DEFAULT : laneNames.get(lane);
+            for (int type = 0; type < types; type++) {
+                int bin = lane * types + type;
+                int speeds = measured[i][slot][bin];
+                writer.writeNext(new String[]{String.valueOf(minutes[i]), start, end, laneName,
+                        CountVehicles.VEHICLE_TYPES[type], String.valueOf(counts[i][slot][bin]), String.valueOf(speeds),
+                        speeds == 0 ? "" : String.valueOf(sums[i][slot][bin] / speeds),
+                        speeds == 0 ? "" : String.valueOf(minimums[i][slot][bin]),
+                        speeds == 0 ? "" : String.valueOf(maximums[i][slot][bin])});
+            }
+        }
+    }
+
+    private void reset(int i, int slot) {
+        Arrays.fill(counts[i][slot], 0);
+        Arrays.fill(measured[i][slot], 0);
+        Arrays.fill(sums[i][slot], 0);
+        Arrays.fill(minimums[i][slot], Double.POSITIVE_INFINITY);
+        Arrays.fill(maximums[i][slot], Double.NEGATIVE_INFINITY);
+    }
+
+    private static int typeIndex(String vehicleType) {
+        for (int type = 0; type < CountVehicles.VEHICLE_TYPES.length; type++) {
+            if (CountVehicles.VEHICLE_TYPES[type].equals(vehicleType))
+                return type;
+        }
+        throw new IllegalArgumentException("Unknown vehicle type " + vehicleType);
+    }
+}
@@ -0,0 +1,32 @@
+import org.opencv.core.Mat;
+import org.opencv.video.BackgroundSubtractorKNN;
+import org.opencv.video.Video;
+
+/**
+ * The KNN background subtractor of OpenCV. The image threshold is used as the distance, so the default
+ * threshold of 20 gives the default squared distance of 400.
+ */
+public class KNearestNeighboursBackground implements VideoProcessor {
+
+    private BackgroundSubtractorKNN knn;
+    private Mat foreground = new Mat();
+    private double learningRate = 0.001;
+
+    public KNearestNeighboursBackground(double imageThreshold, int history) {
+        knn = Video.createBackgroundSubtractorKNN(history, imageThreshold * imageThreshold, true);
+        knn.setShadowValue(0);
+    }
+
+    public Mat process(Mat inputImage) {
+        knn.apply(inputImage, foreground, learningRate);
+        return foreground;
+    }
+
+    public void setImageThreshold(double imageThreshold) {
+        knn.setDist2Threshold(imageThreshold * imageThreshold);
+    }
+
+    public void setHistory(int history) {
+        knn.setHistory(history);
+    }
+}
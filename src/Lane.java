@@ -0,0 +1,59 @@
+import org.opencv.core.Point;
+
+/**
+ * A named pair of a counting line and a speed line, e.g. one carriageway, with the distance between the lines
+ * in meters. The lines are given in the 640x360 view. Every lane is counted and written to the results on its own.
+ */
+public class Lane {
+    /**
+     * The name of the single lane drawn in the window or given without "lanes" in the batch configuration.
+     */
+    public static final String DEFAULT = "default";
+
+    private final String name;
+    private final Point lineCount1;
+    private final Point lineCount2;
+    private final Point lineSpeed1;
+    private final Point lineSpeed2;
+    private final double distance;
+
+    public Lane(String name, Point lineCount1, Point lineCount2, Point lineSpeed1, Point lineSpeed2, double distance) {
+        this.name = name;
+        this.lineCount1 = lineCount1;
+        this.lineCount2 = lineCount2;
+        this.lineSpeed1 = lineSpeed1;
+        this.lineSpeed2 = lineSpeed2;
+        this.distance = distance;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Point getLineCount1() {
+        return lineCount1;
+    }
+
+    public Point getLineCount2() {
+        return lineCount2;
+    }
+
+    public Point getLineSpeed1() {
+        return lineSpeed1;
+    }
+
+    public Point getLineSpeed2() {
+        return lineSpeed2;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    /**
+     * @return the points of both lines
+     */
+    Point[] points() {
+        return new Point[]{lineCount1, lineCount2, lineSpeed1, lineSpeed2};
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Durations in nanoseconds, counted in buckets of powers of two. Recording is lock-free and allocates nothing, so it
+ * can be called for every frame from any thread; the percentiles are exact to a factor of two.
+ */
+public class LatencyHistogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(nanos | 1));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        long previous;
+        while (nanos > (previous = max.get()) && !max.compareAndSet(previous, nanos)) {
+            // retried until the maximum is at least nanos
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / 1e6 / n;
+    }
+
+    public double getMaxMillis() {
+        return max.get() / 1e6;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, in milliseconds
+     */
+    public double getPercentileMillis(double percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(n * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < 64; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank)
+                return Math.min((1L << bucket) * 2 - 1, max.get()) / 1e6;
+        }
+        return getMaxMillis();
+    }
+}
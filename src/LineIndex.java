@@ -0,0 +1,87 @@
+import org.opencv.core.Point;
+
+import java.util.Arrays;
+
+/**
+ * Tests the boxes of a frame against a set of lines. The centers of the boxes are bucketed into a
+ * {@link SpatialGrid}, so every line only tests the boxes which can reach its bounding box instead of all boxes. The
+ * candidates of a line are tested in one call of {@link CheckCrossLine#rectsContainLine(int[], int[], int, long[])}.
+ */
+public class LineIndex {
+    /**
+     * The crossed lines of a box are returned as the bits of an int.
+     */
+    public static final int MAX_LINES = 32;
+
+    private final CheckCrossLine[] lines;
+    private final double[] bounds;
+    private final SpatialGrid grid;
+
+    private int[] masks = new int[16];
+    private int[] found = new int[16];
+    private long[] crossing = new long[1];
+
+    /**
+     * @param lines the two points of every line
+     */
+    public LineIndex(Point[][] lines, int width, int height) {
+        if (lines.length > MAX_LINES)
+            throw new IllegalArgumentException("At most " + MAX_LINES + " lines are supported");
+        this.lines = new CheckCrossLine[lines.length];
+        this.bounds = new double[4 * lines.length];
+        for (int l = 0; l < lines.length; l++) {
+            Point p1 = lines[l][0];
+            Point p2 = lines[l][1];
+            this.lines[l] = new CheckCrossLine(p1, p2);
+            bounds[4 * l] = Math.min(p1.x, p2.x);
+            bounds[4 * l + 1] = Math.min(p1.y, p2.y);
+            bounds[4 * l + 2] = Math.max(p1.x, p2.x);
+            bounds[4 * l + 3] = Math.max(p1.y, p2.y);
+        }
+        this.grid = new SpatialGrid(width, height, Math.max(16, width / 16));
+    }
+
+    /**
+     * @param boxes x, y, width and height of every box
+     * @return for every box the bits of the lines it crosses; the array is reused by the next call
+     */
+    public int[] cross(int[] boxes, int count) {
+        if (masks.length < count) {
+            masks = new int[2 * count];
+            found = new int[2 * count];
+            crossing = new long[(2 * count + 63) >> 6];
+        }
+        int words = (count + 63) >> 6;
+        Arrays.fill(masks, 0, count, 0);
+
+        grid.clear();
+        int halfWidth = 0;
+        int halfHeight = 0;
+        for (int b = 0; b < count; b++) {
+            int width = boxes[4 * b + 2];
+            int height = boxes[4 * b + 3];
+            halfWidth = Math.max(halfWidth, width / 2 + 1);
+            halfHeight = Math.max(halfHeight, height / 2 + 1);
+            grid.insert(b, boxes[4 * b] + width / 2.0, boxes[4 * b + 1] + height / 2.0);
+        }
+
+        for (int l = 0; l < lines.length; l++) {
+            // a box crossing the line overlaps its bounding box, so its center is at most half its size away
+            int candidates = grid.query(bounds[4 * l] - halfWidth, bounds[4 * l + 1] - halfHeight,
+                    bounds[4 * l + 2] + halfWidth, bounds[4 * l + 3] + halfHeight, found);
+            Arrays.fill(crossing, 0, words, 0);
+            if (lines[l].rectsContainLine(boxes, found, candidates, crossing) == 0)
+                continue;
+            for (int word = 0; word < words; word++) {
+                for (long bits = crossing[word]; bits != 0; bits &= bits - 1) {
+                    masks[(word << 6) + Long.numberOfTrailingZeros(bits)] |= 1 << l;
+                }
+            }
+        }
+        return masks;
+    }
+
+    public int size() {
+        return lines.length;
+    }
+}
@@ -0,0 +1,209 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.File;
+
+import static org.opencv.imgproc.Imgproc.resize;
+
+/**
+ * A camera or a stream, read by its own grab thread which keeps only the freshest frame. When the analysis is
+ * slower than the source the older frames are dropped instead of queueing up, so the delay between the capture and
+ * the result stays bounded. A video file can be replayed at its own frame rate as a stand-in for a camera.
+ * <p>
+ * The frames are numbered in the order they were grabbed, dropped frames included, and their timestamp is the time
+ * of the grab since the start, so the speeds are measured in real time.
+ */
+public class LiveSource {
+    private static final double DEFAULT_FPS = 25;
+    private static final long STOP_MILLIS = 2000;
+
+    private final String source;
+    private final VideoCapture capture;
+    private final boolean isReplay;
+    private final double fps;
+
+    private final Object lock = new Object();
+    private Mat grabbed = new Mat();
+    private Mat latest = new Mat();
+    // only used by the thread which calls next
+    private Mat taken = new Mat();
+    private long latestIndex;
+    private long latestNanos;
+    private long latestDecodeNanos;
+    private long takenIndex;
+    private boolean ended;
+    private boolean isStopped;
+    private long startNanos;
+    private volatile long droppedFrames;
+
+    private Thread grabber;
+
+    private LiveSource(String source, VideoCapture capture, boolean isReplay) {
+        this.source = source;
+        this.capture = capture;
+        this.isReplay = isReplay;
+        double captureFPS = capture.get(Videoio.CAP_PROP_FPS);
+        this.fps = captureFPS > 0 ? captureFPS : DEFAULT_FPS;
+    }
+
+    /**
+     * @param source the number of a camera, the URL of a stream, or the path of a video file to replay
+     */
+    public static LiveSource open(String source) {
+        source = source.trim();
+        if (source.matches("\\d+"))
+            return new LiveSource(source, new VideoCapture(Integer.parseInt(source)), false);
+        return new LiveSource(source, new VideoCapture(source), new File(source).isFile());
+    }
+
+    public boolean isOpened() {
+        return capture.isOpened();
+    }
+
+    /**
+     * The capture, for its properties. Only to be read from before {@link #start()}.
+     */
+    public VideoCapture getCapture() {
+        return capture;
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+        grabber = new Thread(this::grab, "grabbing " + source);
+        grabber.setDaemon(true);
+        grabber.start();
+    }
+
+    /**
+     * Stops the grab thread and releases the capture. Waits at most {@link #STOP_MILLIS} ms for a read which hangs,
+     * e.g. on a stalled stream; the capture is then released by the grab thread when the read returns.
+     */
+    public void stop() {
+        if (grabber != null) {
+            grabber.interrupt();
+            try {
+                grabber.join(STOP_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (lock) {
+                isStopped = true;
+                if (!ended) {
+                    System.err.println("Reading from " + source + " did not return within " + STOP_MILLIS + " ms");
+                    return;
+                }
+            }
+        }
+        capture.release();
+    }
+
+    private void grab() {
+        long index = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            if (isReplay && !awaitFrameTime(index))
+                break;
+            long start = System.nanoTime();
+            capture.read(grabbed);
+            long now = System.nanoTime();
+            if (grabbed.empty())
+                break;
+
+            synchronized (lock) {
+                if (latestIndex > takenIndex)
+                    droppedFrames++;
+                Mat swap = latest;
+                latest = grabbed;
+                grabbed = swap;
+                latestIndex = ++index;
+                latestNanos = now;
+                latestDecodeNanos = now - start;
+                lock.notifyAll();
+            }
+        }
+        synchronized (lock) {
+            ended = true;
+            lock.notifyAll();
+            if (isStopped)
+                capture.release();
+        }
+    }
+
+    /**
+     * @return false when interrupted
+     */
+    private boolean awaitFrameTime(long index) {
+        long wait = startNanos + (long) (index * 1e9 / fps) - System.nanoTime();
+        if (wait <= 0)
+            return true;
+        try {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return true when {@link #next(Frame, Size)} would not wait
+     */
+    boolean isReady() {
+        synchronized (lock) {
+            return latestIndex != takenIndex || ended;
+        }
+    }
+
+    /**
+     * Waits for a frame which has not been taken yet and copies it into the slot, scaled to the analysed size.
+     * The frame is swapped out under the lock and scaled afterwards, so the grab thread is not held up meanwhile.
+     *
+     * @param size the analysed size, null to analyse the frames in their native size
+     * @return false when the source has ended
+     */
+    boolean next(Frame frame, Size size) throws InterruptedException {
+        synchronized (lock) {
+            while (latestIndex == takenIndex && !ended) {
+                lock.wait();
+            }
+            if (latestIndex == takenIndex)
+                return false;
+
+            Mat swap = taken;
+            taken = latest;
+            latest = swap;
+            frame.decodeNanos = latestDecodeNanos;
+            frame.index = latestIndex;
+            frame.timestamp = (latestNanos - startNanos) / 1e6;
+            frame.captureNanos = latestNanos;
+            frame.endOfStream = false;
+            takenIndex = latestIndex;
+        }
+
+        long start = System.nanoTime();
+        if (size == null)
+            taken.copyTo(frame.image);
+        else
+            resize(taken, frame.image, size);
+        frame.resizeNanos = size == null ? 0 : System.nanoTime() - start;
+        return true;
+    }
+
+    /**
+     * @return the number of frames which were replaced by a newer one before they could be analysed
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * @return the frame rate of the source, or 25 when the source does not tell it
+     */
+    public double getFPS() {
+        return fps;
+    }
+
+    public String getSource() {
+        return source;
+    }
+}
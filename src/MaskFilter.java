@@ -0,0 +1,12 @@
+import org.opencv.core.Mat;
+
+/**
+ * Cleans up the foreground mask of a {@link VideoProcessor} before the contours are searched in it.
+ */
+public interface MaskFilter {
+    /**
+     * @param mask   the mask of the video processor; it is not modified
+     * @param output receives the filtered mask
+     */
+    void apply(Mat mask, Mat output);
+}
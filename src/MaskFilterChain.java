@@ -0,0 +1,85 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sequence of {@link MaskFilter}s given as text, e.g. "median:5,open:3". The steps are
+ * <ul>
+ * <li>none - the mask is used as it is</li>
+ * <li>bilateral - the bilateral filter the analysis has always used, the default</li>
+ * <li>median:k - median blur with an odd aperture k</li>
+ * <li>open:k, close:k - morphological opening or closing with an elliptic k x k kernel</li>
+ * <li>threshold:t - every pixel above t becomes 255, every other pixel 0</li>
+ * </ul>
+ * The kernels and the intermediate Mats are allocated once per chain.
+ */
+public class MaskFilterChain implements MaskFilter {
+    public static final String DEFAULT = "bilateral";
+
+    private final String description;
+    private final List<MaskFilter> steps = new ArrayList<>();
+    private final Mat first = new Mat();
+    private final Mat second = new Mat();
+
+    public MaskFilterChain(String description) {
+        this.description = description.trim();
+        for (String step : this.description.split(",")) {
+            MaskFilter filter = parseStep(step.trim().toLowerCase());
+            if (filter != null)
+                steps.add(filter);
+        }
+    }
+
+    private static MaskFilter parseStep(String step) {
+        String[] parts = step.split(":");
+        String name = parts[0].trim();
+        int argument = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 0;
+        switch (name) {
+            case "":
+            case "none":
+                return null;
+            case "bilateral":
+                return (mask, output) -> Imgproc.bilateralFilter(mask, output, 2, 1600, 400);
+            case "median":
+                int aperture = argument > 1 ? argument | 1 : 5;
+                return (mask, output) -> Imgproc.medianBlur(mask, output, aperture);
+            case "open":
+                return morphology(Imgproc.MORPH_OPEN, argument > 0 ? argument : 3);
+            case "close":
+                return morphology(Imgproc.MORPH_CLOSE, argument > 0 ? argument : 3);
+            case "threshold":
+                double threshold = parts.length > 1 ? argument : 127;
+                return (mask, output) -> Imgproc.threshold(mask, output, threshold, 255, Imgproc.THRESH_BINARY);
+            default:
+                throw new IllegalArgumentException("Unknown mask filter \"" + step + "\"");
+        }
+    }
+
+    private static MaskFilter morphology(int operation, int size) {
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(size, size));
+        return (mask, output) -> Imgproc.morphologyEx(mask, output, operation, kernel);
+    }
+
+    @Override
+    public void apply(Mat mask, Mat output) {
+        if (steps.isEmpty()) {
+            mask.copyTo(output);
+            return;
+        }
+
+        Mat source = mask;
+        for (int i = 0; i < steps.size(); i++) {
+            Mat target = i == steps.size() - 1 ? output : (i % 2 == 0 ? first : second);
+            steps.get(i).apply(source, target);
+            source = target;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
@@ -0,0 +1,114 @@
+import java.util.Arrays;
+
+/**
+ * The counted vehicles which have not reached the speed line yet, oldest first, in a ring of primitive arrays.
+ * A vehicle whose speed is measured is removed from the middle by marking its slot; the marked slots are skipped
+ * when the head moves on. Since the vehicles are added in the order of time, the expired ones are always at the
+ * head and a frame only looks at as many entries as expire.
+ */
+public class PendingSpeedBuffer {
+    private final double[] starts;
+    private final byte[] types;
+    private final int[] rows;
+    private final double[] counted;
+    private final boolean[] removed;
+
+    private int head;
+    private int size;
+    private int pending;
+
+    public PendingSpeedBuffer(int capacity) {
+        starts = new double[capacity];
+        types = new byte[capacity];
+        rows = new int[capacity];
+        counted = new double[capacity];
+        removed = new boolean[capacity];
+    }
+
+    /**
+     * @param start        the video time of the crossing of the counting line in milliseconds
+     * @param type         the index of the vehicle type in {@link CountVehicles#VEHICLE_TYPES}
+     * @param row          the row of the vehicle in the results
+     * @param countedInSec the time of the vehicle in the results, see {@link ResultsSink#addVehicle}
+     * @return the slot of the vehicle, see {@link #isPending(int, int)}
+     */
+    public int add(double start, int type, int row, double countedInSec) {
+        if (isFull())
+            throw new IllegalStateException("No room for another pending vehicle");
+        int slot = (head + size) % starts.length;
+        starts[slot] = start;
+        types[slot] = (byte) type;
+        rows[slot] = row;
+        counted[slot] = countedInSec;
+        removed[slot] = false;
+        size++;
+        pending++;
+        return slot;
+    }
+
+    /**
+     * @return true when the vehicle of the given row, added to the slot, has neither been measured nor taken back;
+     * the slot may have been reused for a later row since
+     */
+    public boolean isPending(int slot, int row) {
+        return !removed[slot] && rows[slot] == row;
+    }
+
+    public void remove(int slot) {
+        removed[slot] = true;
+        pending--;
+        skipRemoved();
+    }
+
+    /**
+     * @return the slot of the oldest pending vehicle; only valid when the buffer is not empty
+     */
+    public int oldest() {
+        return head;
+    }
+
+    public double getStart(int slot) {
+        return starts[slot];
+    }
+
+    public int getType(int slot) {
+        return types[slot];
+    }
+
+    public int getRow(int slot) {
+        return rows[slot];
+    }
+
+    public double getCountedInSec(int slot) {
+        return counted[slot];
+    }
+
+    /**
+     * @return the number of pending vehicles
+     */
+    public int size() {
+        return pending;
+    }
+
+    public boolean isEmpty() {
+        return pending == 0;
+    }
+
+    public boolean isFull() {
+        return size == starts.length;
+    }
+
+    public void clear() {
+        Arrays.fill(removed, true);
+        head = 0;
+        size = 0;
+        pending = 0;
+    }
+
+    private void skipRemoved() {
+        while (size > 0 && removed[head]) {
+            head = (head + 1) % starts.length;
+            size--;
+        }
+    }
+}
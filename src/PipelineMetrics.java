@@ -0,0 +1,235 @@
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The health of the analysis of one video or camera: a {@link LatencyHistogram} per {@link Stage}, the processed
+ * frames per second, the dropped frames, the frames left out of the annotated video, the dropped clips, the
+ * contours per frame, the pending speed measurements and the native memory of the frame buffers. Everything is
+ * recorded lock-free and without allocation by the threads which do the work. The values can be read through JMX
+ * after {@link #register()} and printed as one line at a fixed period with {@link #startLogging(long)}.
+ */
+public class PipelineMetrics implements PipelineMetricsMBean {
+
+    public enum Stage {
+        DECODE, RESIZE, SUBTRACTION, FILTER, CONTOURS, COUNTING, ENCODE, RENDER
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final String name;
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGES.length];
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong contours = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong droppedVideoFrames = new AtomicLong();
+    private final AtomicLong droppedClips = new AtomicLong();
+    private final AtomicInteger pendingSpeeds = new AtomicInteger();
+    private final AtomicLong frameBufferBytes = new AtomicLong();
+    private final long startNanos = System.nanoTime();
+
+    private ObjectName objectName;
+    private ScheduledExecutorService logger;
+
+    public PipelineMetrics(String name) {
+        this.name = name;
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Called once per analysed frame.
+     */
+    public void frameAnalysed(int contourCount, int pendingSpeedCount) {
+        frames.incrementAndGet();
+        contours.addAndGet(contourCount);
+        pendingSpeeds.set(pendingSpeedCount);
+    }
+
+    public void setDroppedFrames(long dropped) {
+        droppedFrames.set(dropped);
+    }
+
+    /**
+     * @param dropped the frames the {@link VideoEncoder} left out because it was behind
+     */
+    public void setDroppedVideoFrames(long dropped) {
+        droppedVideoFrames.set(dropped);
+    }
+
+    /**
+     * @param dropped the clips the {@link ClipRecorder} left out because it was behind
+     */
+    public void setDroppedClips(long dropped) {
+        droppedClips.set(dropped);
+    }
+
+    public void setFrameBufferBytes(long bytes) {
+        frameBufferBytes.set(bytes);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    /**
+     * Makes the metrics visible to JMX clients as "KSTrafficAnalyzer:type=PipelineMetrics,name=&lt;name&gt;".
+     * Failures are reported and otherwise ignored, the analysis does not depend on them.
+     */
+    public PipelineMetrics register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("KSTrafficAnalyzer:type=PipelineMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            System.err.println("Couldn't register the metrics of " + name);
+            e.printStackTrace();
+            objectName = null;
+        }
+        return this;
+    }
+
+    /**
+     * Prints {@link #getSummary()} every period.
+     *
+     * @param periodSeconds 0 or less does not print anything
+     */
+    public PipelineMetrics startLogging(long periodSeconds) {
+        if (periodSeconds <= 0)
+            return this;
+        logger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics " + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.scheduleAtFixedRate(() -> System.out.println(getSummary()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        return this;
+    }
+
+    /**
+     * Stops the logging and removes the metrics from JMX.
+     */
+    public void close() {
+        if (logger != null)
+            logger.shutdown();
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                e.printStackTrace();
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public long getProcessedFrames() {
+        return frames.get();
+    }
+
+    @Override
+    public double getFramesPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : frames.get() / seconds;
+    }
+
+    @Override
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    public long getDroppedVideoFrames() {
+        return droppedVideoFrames.get();
+    }
+
+    @Override
+    public long getDroppedClips() {
+        return droppedClips.get();
+    }
+
+    @Override
+    public double getMeanContoursPerFrame() {
+        long n = frames.get();
+        return n == 0 ? 0 : (double) contours.get() / n;
+    }
+
+    @Override
+    public int getPendingSpeedMeasurements() {
+        return pendingSpeeds.get();
+    }
+
+    @Override
+    public long getFrameBufferBytes() {
+        return frameBufferBytes.get();
+    }
+
+    @Override
+    public String[] getStageNames() {
+        String[] names = new String[STAGES.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = STAGES[i].name().toLowerCase();
+        }
+        return names;
+    }
+
+    @Override
+    public double[] getStageMeanMillis() {
+        double[] values = new double[stages.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = stages[i].getMeanMillis();
+        }
+        return values;
+    }
+
+    @Override
+    public double[] getStageP99Millis() {
+        double[] values = new double[stages.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = stages[i].getPercentileMillis(99);
+        }
+        return values;
+    }
+
+    @Override
+    public double[] getStageMaxMillis() {
+        double[] values = new double[stages.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = stages[i].getMaxMillis();
+        }
+        return values;
+    }
+
+    /**
+     * @return e.g. "road.avi: 23.9 fps, 1440 frames, 0 dropped, 2.1 contours, 1 pending, 8.3 MB frames | decode 4.1/9.0 ..."
+     * with the mean and the 99th percentile of every stage which has been recorded, in milliseconds
+     */
+    @Override
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder(String.format("%s: %.1f fps, %d frames, %d dropped, %.1f contours, %d pending, %.1f MB frames |",
+                name, getFramesPerSecond(), getProcessedFrames(), getDroppedFrames(), getMeanContoursPerFrame(),
+                getPendingSpeedMeasurements(), getFrameBufferBytes() / 1e6));
+        if (getDroppedVideoFrames() > 0 || getDroppedClips() > 0)
+            summary.append(String.format(" %d video frames dropped, %d clips dropped |", getDroppedVideoFrames(), getDroppedClips()));
+        for (int i = 0; i < stages.length; i++) {
+            if (stages[i].getCount() > 0) {
+                summary.append(String.format(" %s %.1f/%.1f", STAGES[i].name().toLowerCase(),
+                        stages[i].getMeanMillis(), stages[i].getPercentileMillis(99)));
+            }
+        }
+        return summary.toString();
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * The attributes of {@link PipelineMetrics} as seen in JConsole or any other JMX client.
+ */
+public interface PipelineMetricsMBean {
+    long getProcessedFrames();
+
+    double getFramesPerSecond();
+
+    long getDroppedFrames();
+
+    long getDroppedVideoFrames();
+
+    long getDroppedClips();
+
+    double getMeanContoursPerFrame();
+
+    int getPendingSpeedMeasurements();
+
+    long getFrameBufferBytes();
+
+    String[] getStageNames();
+
+    double[] getStageMeanMillis();
+
+    double[] getStageP99Millis();
+
+    double[] getStageMaxMillis();
+
+    String getSummary();
+}
@@ -0,0 +1,70 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The playback state of the GUI. The video stays idle until the files and both lines are chosen, then it is
+ * configured, playing or paused and finally finished; a reset goes back to idle. Every transition is pushed to
+ * the listeners, so nothing has to poll the state.
+ */
+public class PlaybackController {
+
+    public enum State {
+        IDLE, CONFIGURED, PLAYING, PAUSED, FINISHED
+    }
+
+    public interface Listener {
+        void stateChanged(State previous, State current);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private State state = State.IDLE;
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public boolean isPlaying() {
+        return getState() == State.PLAYING;
+    }
+
+    public void configure() {
+        transition(State.CONFIGURED, State.IDLE);
+    }
+
+    public void play() {
+        transition(State.PLAYING, State.CONFIGURED, State.PAUSED);
+    }
+
+    public void pause() {
+        transition(State.PAUSED, State.PLAYING);
+    }
+
+    /**
+     * Frames already in the pipeline may still reach the end of the video after the user has paused it.
+     */
+    public void finish() {
+        transition(State.FINISHED, State.PLAYING, State.PAUSED);
+    }
+
+    public void reset() {
+        transition(State.IDLE, State.values());
+    }
+
+    private void transition(State next, State... allowed) {
+        State previous;
+        synchronized (this) {
+            previous = state;
+            if (!Arrays.asList(allowed).contains(previous))
+                throw new IllegalStateException("Can't go from " + previous + " to " + next);
+            state = next;
+        }
+        for (Listener listener : listeners) {
+            listener.stateChanged(previous, next);
+        }
+    }
+}
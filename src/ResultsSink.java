@@ -0,0 +1,46 @@
+import jxl.write.WriteException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the counted vehicles and the measured speeds of an {@link AnalysisSession}. The rows are numbered from
+ * 1 per lane in the order the vehicles were counted.
+ */
+public interface ResultsSink {
+    /**
+     * @param timeInSec the video time of the crossing of the counting line
+     */
+    void addVehicle(int lane, int row, String vehicleType, double timeInSec) throws WriteException;
+
+    /**
+     * @param timeInSec the video time of the crossing of the speed line
+     */
+    void addSpeed(int lane, int row, String vehicleType, double speed, double timeInSec) throws WriteException;
+
+    /**
+     * A counted vehicle which did not reach the speed line in time and was probably no vehicle. Its row stays.
+     *
+     * @param countedInSec the video time the vehicle was counted at, as given to {@link #addVehicle}
+     * @param timeInSec    the video time it was taken back at
+     */
+    void takeBack(int lane, int row, String vehicleType, double countedInSec, double timeInSec) throws WriteException;
+
+    /**
+     * Called once at the end of the video or on reset.
+     */
+    void close();
+
+    /**
+     * Creates the results of the configuration in the directory: the rows of the vehicles and, unless no intervals
+     * are configured, their summary per interval.
+     */
+    static ResultsSink open(File directory, AnalysisConfig config) throws IOException {
+        List<String> laneNames = ResultsWriter.namesOf(config.getLanes());
+        ResultsSink results = new ResultsWriter(directory, config.isExcelToWrite(), laneNames);
+        if (config.getIntervals().length > 0)
+            results = new IntervalAggregator(results, directory, config.getIntervals(), laneNames);
+        return results;
+    }
+}
@@ -0,0 +1,277 @@
+import com.opencsv.CSVReader;
+import com.opencsv.CSVWriter;
+import jxl.Workbook;
+import jxl.write.Number;
+import jxl.write.WritableSheet;
+import jxl.write.WritableWorkbook;
+import jxl.write.WriteException;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the counted vehicles to "Results.xls" or "Results.csv" in the given directory.
+ * With several lanes every lane gets its own sheet, named after the lane, or its own "Results_&lt;lane&gt;.csv".
+ * <p>
+ * The rows are not kept in memory: a background thread appends them to the files and flushes them at least every
+ * {@link #FLUSH_MILLIS} ms, so a crash loses only the last moments. The CSV files are written directly. For Excel
+ * the rows go to the tab separated journal "Results.journal.csv" first, from which the workbook is built at the end;
+ * the journal is then deleted.
+ * <p>
+ * {@link #journal(File)} writes nothing but a journal, which stays; {@link SegmentedAnalysis} merges these.
+ * <p>
+ * If the background thread fails, the next row and {@link #close()} throw an {@link IllegalStateException} with the
+ * cause instead of waiting for room in the queue.
+ */
+public class ResultsWriter implements ResultsSink {
+    static final String JOURNAL = "Results.journal.csv";
+    private static final long FLUSH_MILLIS = 1000;
+    private static final int FLUSH_ROWS = 256;
+    private static final String[] END = new String[0];
+
+    private final File directory;
+    private final boolean isExcelToWrite;
+    private final boolean isJournalOnly;
+    private final List<String> sheetNames = new ArrayList<>();
+
+    private final List<CSVWriter> csvWriters = new ArrayList<>();
+    private CSVWriter journal;
+
+    private final BlockingQueue<String[]> queue = new ArrayBlockingQueue<>(4096);
+    private final Thread writer;
+    private volatile Exception failure;
+
+    private boolean isWritten = false;
+
+    /**
+     * @param laneNames the names of the lanes, in the order of their indices
+     */
+    public ResultsWriter(File directory, boolean isExcelToWrite, List<String> laneNames) throws IOException {
+        this.directory = directory;
+        this.isExcelToWrite = isExcelToWrite;
+        this.isJournalOnly = false;
+
+        boolean isSingleLane = laneNames.size() <= 1;
+        for (int lane = 0; lane < Math.max(1, laneNames.size()); lane++) {
+            sheetNames.add(isSingleLane ? "Counting" : laneNames.get(lane));
+            if (!isExcelToWrite) {
+                String name = isSingleLane ? "Results.csv" : "Results_" + laneNames.get(lane) + ".csv";
+                writeToCSV(new FileWriter(new File(directory, name)));
+            }
+        }
+        if (isExcelToWrite)
+            journal = new CSVWriter(new FileWriter(new File(directory, JOURNAL)), '\t');
+        writer = startWriter(directory.getName());
+    }
+
+    private ResultsWriter(File journalFile) throws IOException {
+        this.directory = journalFile.getParentFile();
+        this.isExcelToWrite = true;
+        this.isJournalOnly = true;
+        journal = new CSVWriter(new FileWriter(journalFile), '\t');
+        writer = startWriter(journalFile.getName());
+    }
+
+    /**
+     * Appends the events to the given journal only, the take-backs included, in rows of lane index, No., vehicle
+     * type, speed or "", video time and, for a take-back, the video time of its counting. The journal is kept.
+     */
+    public static ResultsWriter journal(File journalFile) throws IOException {
+        return new ResultsWriter(journalFile);
+    }
+
+    private Thread startWriter(String name) {
+        Thread thread = new Thread(this::write, "results " + name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * @return the names of the lanes, for {@link #ResultsWriter(File, boolean, List)}
+     */
+    public static List<String> namesOf(List<Lane> lanes) {
+        List<String> names = new ArrayList<>();
+        for (Lane lane : lanes) {
+            names.add(lane.getName());
+        }
+        return names;
+    }
+
+    private void writeToCSV(FileWriter fileWriter) {
+        CSVWriter csvWriter = new CSVWriter(fileWriter, '\t');
+        csvWriter.writeNext("No.#Vehicle type#Speed [km/h]#Video time [sec]".split("#"));
+        csvWriters.add(csvWriter);
+    }
+
+    /**
+     * The time is only written with the speed.
+     */
+    @Override
+    public void addVehicle(int lane, int row, String vehicleType, double timeInSec) {
+        if (isExcelToWrite)
+            enqueue(new String[]{String.valueOf(lane), String.valueOf(row), vehicleType, "", String.valueOf(timeInSec)});
+    }
+
+    @Override
+    public void addSpeed(int lane, int row, String vehicleType, double speed, double timeInSec) {
+        enqueue(new String[]{String.valueOf(lane), String.valueOf(row), vehicleType, String.valueOf(speed), String.valueOf(timeInSec)});
+    }
+
+    /**
+     * The row stays in the results; only the amounts and the summary leave the vehicle out.
+     */
+    @Override
+    public void takeBack(int lane, int row, String vehicleType, double countedInSec, double timeInSec) {
+        if (isJournalOnly)
+            enqueue(new String[]{String.valueOf(lane), String.valueOf(row), vehicleType, "", String.valueOf(timeInSec),
+                    String.valueOf(countedInSec)});
+    }
+
+    private void enqueue(String[] row) {
+        checkWriter();
+        try {
+            while (!queue.offer(row, FLUSH_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkWriter();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkWriter() {
+        if (failure != null)
+            throw new IllegalStateException("The results couldn't be written to " + directory, failure);
+        if (!writer.isAlive())
+            throw new IllegalStateException("The writer of the results in " + directory + " has stopped");
+    }
+
+    /**
+     * Appends the queued rows; flushes after {@link #FLUSH_ROWS} rows, or when a row has waited {@link #FLUSH_MILLIS}.
+     */
+    private void write() {
+        int unflushed = 0;
+        long lastFlush = System.currentTimeMillis();
+        try {
+            while (true) {
+                String[] row = queue.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+                if (row == END)
+                    return;
+                if (row != null) {
+                    if (isExcelToWrite) {
+                        journal.writeNext(row);
+                    } else {
+                        csvWriters.get(Integer.parseInt(row[0])).writeNext(new String[]{row[1], row[2], row[3], row[4]});
+                    }
+                    unflushed++;
+                }
+                long now = System.currentTimeMillis();
+                if (unflushed > 0 && (unflushed >= FLUSH_ROWS || row == null || now - lastFlush >= FLUSH_MILLIS)) {
+                    flush();
+                    unflushed = 0;
+                    lastFlush = now;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+    }
+
+    private void flush() throws IOException {
+        if (journal != null)
+            journal.flush();
+        for (CSVWriter csvWriter : csvWriters) {
+            csvWriter.flush();
+        }
+    }
+
+    /**
+     * Writes the remaining rows to disk and, for Excel, builds the workbook. Called at the end of the video or on
+     * reset; further calls do nothing. If the background thread has failed, the files are closed as far as written
+     * and its failure is thrown.
+     */
+    @Override
+    public synchronized void close() {
+        if (isWritten)
+            return;
+
+        try {
+            while (failure == null && writer.isAlive() && !queue.offer(END, FLUSH_MILLIS, TimeUnit.MILLISECONDS)) {
+                // the writer is still draining the queue
+            }
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            for (CSVWriter csvWriter : csvWriters) {
+                csvWriter.close();
+            }
+            if (isJournalOnly) {
+                journal.close();
+            } else if (isExcelToWrite) {
+                journal.close();
+                File journalFile = new File(directory, JOURNAL);
+                writeWorkbook(journalFile);
+                journalFile.delete();
+            }
+        } catch (IOException | WriteException e) {
+            e.printStackTrace();
+        }
+        isWritten = true;
+        if (failure != null)
+            throw new IllegalStateException("The results couldn't be written to " + directory, failure);
+    }
+
+    private void writeWorkbook(File journalFile) throws IOException, WriteException {
+        WritableWorkbook workbook = Workbook.createWorkbook(new File(directory, "Results.xls"));
+        List<WritableSheet> sheets = new ArrayList<>();
+        for (int lane = 0; lane < sheetNames.size(); lane++) {
+            sheets.add(writeToExel(workbook, sheetNames.get(lane), lane));
+        }
+
+        try (CSVReader reader = new CSVReader(new FileReader(journalFile), '\t')) {
+            String[] line;
+            while ((line = reader.readNext()) != null) {
+                WritableSheet sheet = sheets.get(Integer.parseInt(line[0]));
+                int row = Integer.parseInt(line[1]);
+                if (line[3].isEmpty()) {
+                    addNumber(sheet, 0, row, row);
+                    addLabel(sheet, 1, row, line[2]);
+                } else {
+                    addNumber(sheet, 2, row, Double.parseDouble(line[3]));
+                    addNumber(sheet, 3, row, Double.parseDouble(line[4]));
+                }
+            }
+        }
+        workbook.write();
+        workbook.close();
+    }
+
+    private static WritableSheet writeToExel(WritableWorkbook workbook, String sheetName, int lane) throws WriteException {
+        WritableSheet sheet = workbook.createSheet(sheetName, lane);
+        addLabel(sheet, 0, 0, "No.");
+        addLabel(sheet, 1, 0, "Vehicle type");
+        addLabel(sheet, 2, 0, "Speed [km/h]");
+        addLabel(sheet, 3, 0, "Video time [sec]");
+        return sheet;
+    }
+
+    private static void addLabel(WritableSheet sheet, int column, int row, String text) throws WriteException {
+        sheet.addCell(new jxl.write.Label(column, row, text));
+    }
+
+    private static void addNumber(WritableSheet sheet, int column, int row, double d) throws WriteException {
+        sheet.addCell(new Number(column, row, d));
+    }
+}
@@ -0,0 +1,46 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Models the background as the running average of the grey frames, learning with 1/history per frame.
+ * A pixel is foreground when it differs from the average by more than the image threshold.
+ * Much cheaper than a mixture model, but suited only to steady light and a fixed camera.
+ */
+public class RunningAverageBackground implements VideoProcessor {
+
+    private final Mat gray = new Mat();
+    private final Mat average = new Mat();
+    private final Mat background = new Mat();
+    private final Mat difference = new Mat();
+    private final Mat foreground = new Mat();
+    private double imageThreshold;
+    private double learningRate;
+
+    public RunningAverageBackground(double imageThreshold, int history) {
+        setImageThreshold(imageThreshold);
+        setHistory(history);
+    }
+
+    public Mat process(Mat inputImage) {
+        Imgproc.cvtColor(inputImage, gray, Imgproc.COLOR_BGR2GRAY);
+        if (average.empty() || average.size().width != gray.size().width || average.size().height != gray.size().height)
+            gray.convertTo(average, CvType.CV_32F);
+
+        average.convertTo(background, CvType.CV_8U);
+        Core.absdiff(gray, background, difference);
+        Imgproc.threshold(difference, foreground, imageThreshold, 255, Imgproc.THRESH_BINARY);
+
+        Imgproc.accumulateWeighted(gray, average, learningRate);
+        return foreground;
+    }
+
+    public void setImageThreshold(double imageThreshold) {
+        this.imageThreshold = imageThreshold;
+    }
+
+    public void setHistory(int history) {
+        this.learningRate = 1.0 / Math.max(1, history);
+    }
+}
@@ -0,0 +1,271 @@
+import com.opencsv.CSVReader;
+import jxl.write.WriteException;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Analyses one long video in time segments which run in parallel, each with its own {@link AnalysisSession} and
+ * so its own background model. A segment starts a warm-up before its window, so that the model has converged and
+ * the vehicles already on the lines are tracked when the window begins. It counts only the vehicles crossing a
+ * counting line within its window and goes on after the window until their speeds have been measured; a vehicle on
+ * the boundary of two segments is therefore counted by exactly one of them.
+ * <p>
+ * Every segment appends its events to its own journal, "Segment_&lt;n&gt;.journal.csv" (see
+ * {@link ResultsWriter#journal(File)}), so the memory does not grow with the video and a crash loses only the last
+ * moments. At the end the journals, each in the order of video time, are merged a row at a time, renumbered and
+ * written as a single session would have written them, and then deleted.
+ */
+public class SegmentedAnalysis {
+    private final AnalysisConfig config;
+    private final String video;
+    private final int segments;
+    private final double warmupSeconds;
+
+    private final List<String> laneNames;
+    private PipelineMetrics metrics;
+    private File clipDirectory;
+    private int[][] amounts;
+
+    public SegmentedAnalysis(AnalysisConfig config, String video, int segments, double warmupSeconds) {
+        this.config = config;
+        this.video = video;
+        this.segments = segments;
+        this.warmupSeconds = warmupSeconds;
+        this.laneNames = ResultsWriter.namesOf(config.getLanes());
+    }
+
+    /**
+     * Starts all the segments on the engine.
+     *
+     * @param results   written when the last segment has finished, then closed; closed as well when a segment fails,
+     *                  whose journals are then kept
+     * @param directory receives the journals of the segments
+     * @return completed when the results have been written
+     */
+    public CompletableFuture<SegmentedAnalysis> start(AnalysisEngine engine, ResultsSink results, File directory) throws IOException {
+        VideoCapture capture = new VideoCapture(video);
+        long frames = (long) capture.get(Videoio.CAP_PROP_FRAME_COUNT);
+        double fps = capture.get(Videoio.CAP_PROP_FPS);
+        capture.release();
+        int parts = frames > segments ? segments : 1;
+        long warmup = (long) (warmupSeconds * fps);
+
+        List<Segment> started = new ArrayList<>();
+        List<CompletableFuture<AnalysisSession>> futures = new ArrayList<>();
+        for (int part = 0; part < parts; part++) {
+            long first = frames * part / parts + 1;
+            long last = part == parts - 1 ? Long.MAX_VALUE : frames * (part + 1) / parts;
+            Segment segment = new Segment(new File(directory, "Segment_" + (part + 1) + ".journal.csv"), laneNames.size());
+            started.add(segment);
+            futures.add(start(engine, segment, first, last, warmup));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            for (int part = 0; part < parts; part++) {
+                AnalysisSession session = futures.get(part).join();
+                Segment segment = started.get(part);
+                for (int lane = 0; lane < laneNames.size(); lane++) {
+                    segment.amounts[lane] = session.getAmounts(lane);
+                }
+            }
+            try {
+                merge(started, results);
+                for (Segment segment : started) {
+                    segment.file.delete();
+                }
+            } catch (IOException | WriteException e) {
+                e.printStackTrace();
+            }
+            return this;
+        }).whenComplete((analysis, failure) -> results.close());
+    }
+
+    /**
+     * @param first the first frame of the window, numbered from 1 like {@link Frame#getIndex()}
+     * @param last  the last frame of the window
+     */
+    private CompletableFuture<AnalysisSession> start(AnalysisEngine engine, Segment segment, long first, long last, long warmup) {
+        long start = Math.max(1, first - warmup);
+        VideoCapture capture = open(start - 1);
+        if (capture == null) {
+            segment.close();
+            CompletableFuture<AnalysisSession> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new IllegalStateException("Couldn't open video: " + video));
+            return failed;
+        }
+
+        AnalysisSession session = new AnalysisSession(config, capture.get(Videoio.CAP_PROP_FPS), config.analysisSizeOf(capture),
+                segment, new AnalysisListener() {
+                });
+        session.setCountingWindow(first, last);
+        session.setMetrics(metrics);
+        if (clipDirectory != null)
+            session.setClipRecorder(config.createClipRecorder(clipDirectory, capture.get(Videoio.CAP_PROP_FPS)));
+        return engine.submit(capture, start - 1, config, session);
+    }
+
+    /**
+     * Opens the video with the given number of frames read. With some codecs a seek lands on the key frame before
+     * the requested one, which would shift the frame numbers and so the window of the segment. The seek therefore
+     * goes one frame short and grabs that frame, whose position the capture then takes from its timestamp; if it is
+     * not the expected one, the video is read forward from the beginning instead.
+     *
+     * @return null if the video can't be opened or is shorter
+     */
+    private VideoCapture open(long position) {
+        VideoCapture capture = new VideoCapture(video);
+        if (!capture.isOpened())
+            return null;
+        if (position == 0)
+            return capture;
+
+        if (capture.set(Videoio.CAP_PROP_POS_FRAMES, position - 1) && capture.grab()
+                && (long) capture.get(Videoio.CAP_PROP_POS_FRAMES) == position)
+            return capture;
+
+        System.err.println("Seeking in " + video + " is not exact, frame " + position + " is read to");
+        capture.release();
+        capture = new VideoCapture(video);
+        for (long frame = 0; frame < position; frame++) {
+            if (!capture.grab()) {
+                capture.release();
+                return null;
+            }
+        }
+        return capture;
+    }
+
+    /**
+     * Numbers the rows of every lane on from the rows of the earlier segments and writes the events of all the
+     * journals in the order of their time. Of events at the same time those of the earlier segment come first, and
+     * within a segment the order of the journal is kept, so a vehicle is still written before its speed.
+     */
+    private void merge(List<Segment> parts, ResultsSink results) throws IOException, WriteException {
+        int lanes = laneNames.size();
+        int[][] offsets = new int[parts.size()][lanes];
+        amounts = new int[lanes][CountVehicles.VEHICLE_TYPES.length];
+        for (int part = 0; part < parts.size(); part++) {
+            Segment segment = parts.get(part);
+            for (int lane = 0; lane < lanes; lane++) {
+                if (part + 1 < parts.size())
+                    offsets[part + 1][lane] = offsets[part][lane] + segment.rows[lane];
+                for (int type = 0; type < amounts[lane].length; type++) {
+                    amounts[lane][type] += segment.amounts[lane][type];
+                }
+            }
+        }
+
+        CSVReader[] readers = new CSVReader[parts.size()];
+        String[][] heads = new String[parts.size()][];
+        try {
+            for (int part = 0; part < readers.length; part++) {
+                readers[part] = new CSVReader(new FileReader(parts.get(part).file), '\t');
+                heads[part] = readers[part].readNext();
+            }
+            while (true) {
+                int next = -1;
+                for (int part = 0; part < heads.length; part++) {
+                    if (heads[part] != null && (next < 0 || Double.parseDouble(heads[part][4]) < Double.parseDouble(heads[next][4])))
+                        next = part;
+                }
+                if (next < 0)
+                    break;
+                write(heads[next], offsets[next], results);
+                heads[next] = readers[next].readNext();
+            }
+        } finally {
+            for (CSVReader reader : readers) {
+                if (reader != null)
+                    reader.close();
+            }
+        }
+    }
+
+    /**
+     * @param line a row of a journal, see {@link ResultsWriter#journal(File)}
+     */
+    private static void write(String[] line, int[] offsets, ResultsSink results) throws WriteException {
+        int lane = Integer.parseInt(line[0]);
+        int row = Integer.parseInt(line[1]) + offsets[lane];
+        double time = Double.parseDouble(line[4]);
+        if (line.length > 5)
+            results.takeBack(lane, row, line[2], Double.parseDouble(line[5]), time);
+        else if (line[3].isEmpty())
+            results.addVehicle(lane, row, line[2], time);
+        else
+            results.addSpeed(lane, row, line[2], Double.parseDouble(line[3]), time);
+    }
+
+    /**
+     * @param metrics shared by the sessions of all the segments
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param clipDirectory receives the clips of the events of all the segments; null writes no clips
+     */
+    public void setClipDirectory(File clipDirectory) {
+        this.clipDirectory = clipDirectory;
+    }
+
+    public String getVideo() {
+        return video;
+    }
+
+    public List<String> getLaneNames() {
+        return laneNames;
+    }
+
+    /**
+     * @return the number of vehicles of the lane, per type
+     */
+    public int[] getAmounts(int lane) {
+        return amounts[lane].clone();
+    }
+
+    /**
+     * Journals the events of one segment and keeps the highest row of every lane.
+     */
+    private static class Segment implements ResultsSink {
+        final File file;
+        final ResultsWriter journal;
+        final int[] rows;
+        final int[][] amounts;
+
+        Segment(File file, int lanes) throws IOException {
+            this.file = file;
+            this.journal = ResultsWriter.journal(file);
+            this.rows = new int[lanes];
+            this.amounts = new int[lanes][];
+        }
+
+        @Override
+        public void addVehicle(int lane, int row, String vehicleType, double timeInSec) {
+            rows[lane] = Math.max(rows[lane], row);
+            journal.addVehicle(lane, row, vehicleType, timeInSec);
+        }
+
+        @Override
+        public void addSpeed(int lane, int row, String vehicleType, double speed, double timeInSec) {
+            journal.addSpeed(lane, row, vehicleType, speed, timeInSec);
+        }
+
+        @Override
+        public void takeBack(int lane, int row, String vehicleType, double countedInSec, double timeInSec) {
+            journal.takeBack(lane, row, vehicleType, countedInSec, timeInSec);
+        }
+
+        @Override
+        public void close() {
+            journal.close();
+        }
+    }
+}
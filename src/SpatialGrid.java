@@ -0,0 +1,86 @@
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the frame for finding the points near a position in constant time. The points are kept
+ * in linked lists of indices per cell, stored in arrays, so clearing and refilling the grid every frame does
+ * not allocate once the arrays have grown to the number of points.
+ */
+public class SpatialGrid {
+    private final int cellSize;
+    private final int columns;
+    private final int rows;
+    private final int[] heads;
+
+    private int[] next = new int[64];
+    private int[] items = new int[64];
+    private int size;
+
+    /**
+     * @param cellSize should be the search radius, then a search looks into at most 3x3 cells
+     */
+    public SpatialGrid(int width, int height, int cellSize) {
+        this.cellSize = Math.max(1, cellSize);
+        this.columns = width / this.cellSize + 1;
+        this.rows = height / this.cellSize + 1;
+        this.heads = new int[columns * rows];
+        clear();
+    }
+
+    public void clear() {
+        Arrays.fill(heads, -1);
+        size = 0;
+    }
+
+    public void insert(int item, double x, double y) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+            next = Arrays.copyOf(next, size * 2);
+        }
+        int cell = cell(column(x), row(y));
+        items[size] = item;
+        next[size] = heads[cell];
+        heads[cell] = size;
+        size++;
+    }
+
+    /**
+     * Collects the items of all cells touched by the square around the position. The caller filters them
+     * by the actual distance.
+     *
+     * @return the number of items written to found, which has to be large enough for all inserted items
+     */
+    public int query(double x, double y, double radius, int[] found) {
+        return query(x - radius, y - radius, x + radius, y + radius, found);
+    }
+
+    /**
+     * Collects the items of all cells touched by the rectangle.
+     *
+     * @return the number of items written to found, which has to be large enough for all inserted items
+     */
+    public int query(double left, double top, double right, double bottom, int[] found) {
+        int count = 0;
+        int lastColumn = column(right);
+        int lastRow = row(bottom);
+        for (int row = row(top); row <= lastRow; row++) {
+            for (int column = column(left); column <= lastColumn; column++) {
+                for (int entry = heads[cell(column, row)]; entry != -1; entry = next[entry]) {
+                    found[count++] = items[entry];
+                }
+            }
+        }
+        return count;
+    }
+
+    private int column(double x) {
+        return Math.min(columns - 1, Math.max(0, (int) x / cellSize));
+    }
+
+    private int row(double y) {
+        return Math.min(rows - 1, Math.max(0, (int) y / cellSize));
+    }
+
+    private int cell(int column, int row) {
+        return row * columns + column;
+    }
+}
@@ -0,0 +1,194 @@
+import org.opencv.core.Mat;
+
+import javax.swing.Timer;
+
+/**
+ * Decouples the Swing views from the analysis. The analysing threads publish the latest frame, the latest
+ * background preview and the statistics without ever waiting for Swing; two timers on the event dispatch thread
+ * show them at a capped rate. Frames published between two ticks of the timer are never shown.
+ */
+public class UiRefresher implements AnalysisListener {
+
+    public interface FrameView {
+        /**
+         * Called on the event dispatch thread. The image may only be used until the method returns.
+         */
+        void show(Mat image);
+    }
+
+    public interface StatisticsView {
+        /**
+         * Called on the event dispatch thread with a snapshot of the statistics.
+         */
+        void show(Statistics statistics);
+    }
+
+    public static class Statistics {
+        public int cars;
+        public int vans;
+        public int lorries;
+        public double carsSpeed;
+        public double vansSpeed;
+        public double lorriesSpeed;
+        public double timeInSec;
+
+        void copyTo(Statistics target) {
+            target.cars = cars;
+            target.vans = vans;
+            target.lorries = lorries;
+            target.carsSpeed = carsSpeed;
+            target.vansSpeed = vansSpeed;
+            target.lorriesSpeed = lorriesSpeed;
+            target.timeInSec = timeInSec;
+        }
+    }
+
+    /**
+     * Three Mats: the publisher writes into the back one, the viewer reads the front one, and the latest
+     * complete image waits in between. Publishing swaps back and ready, taking swaps ready and front, so
+     * neither side waits for the other or sees a half written image.
+     */
+    private static class LatestFrame {
+        private Mat back = new Mat();
+        private Mat ready = new Mat();
+        private Mat front = new Mat();
+        private boolean fresh;
+
+        /**
+         * Called by one thread only.
+         */
+        void publish(Mat image) {
+            image.copyTo(back);
+            synchronized (this) {
+                Mat swap = ready;
+                ready = back;
+                back = swap;
+                fresh = true;
+            }
+        }
+
+        /**
+         * @return the latest image if there is one which has not been taken yet, otherwise null
+         */
+        synchronized Mat take() {
+            if (!fresh)
+                return null;
+            Mat swap = front;
+            front = ready;
+            ready = swap;
+            fresh = false;
+            return front;
+        }
+
+        synchronized void clear() {
+            fresh = false;
+        }
+    }
+
+    private final LatestFrame frame = new LatestFrame();
+    private final LatestFrame preview = new LatestFrame();
+    private final Statistics statistics = new Statistics();
+    private final Statistics snapshot = new Statistics();
+    private boolean statisticsChanged;
+
+    private final Timer frameTimer;
+    private final Timer statisticsTimer;
+
+    /**
+     * @param frameRate      the maximal rate of the frame and the preview view
+     * @param statisticsRate the maximal rate of the statistics view
+     */
+    public UiRefresher(int frameRate, int statisticsRate, FrameView frameView, FrameView previewView, StatisticsView statisticsView) {
+        frameTimer = new Timer(1000 / frameRate, event -> {
+            Mat image = frame.take();
+            if (image != null)
+                frameView.show(image);
+            Mat previewImage = preview.take();
+            if (previewImage != null)
+                previewView.show(previewImage);
+        });
+        statisticsTimer = new Timer(1000 / statisticsRate, event -> {
+            synchronized (statistics) {
+                if (!statisticsChanged)
+                    return;
+                statistics.copyTo(snapshot);
+                statisticsChanged = false;
+            }
+            statisticsView.show(snapshot);
+        });
+    }
+
+    public void start() {
+        frameTimer.start();
+        statisticsTimer.start();
+    }
+
+    public void stop() {
+        frameTimer.stop();
+        statisticsTimer.stop();
+    }
+
+    public void publishFrame(Mat image) {
+        frame.publish(image);
+    }
+
+    public void publishPreview(Mat image) {
+        preview.publish(image);
+    }
+
+    /**
+     * Forgets the statistics and the frames which have not been shown yet, e.g. when the video is reset.
+     */
+    public void clear() {
+        frame.clear();
+        preview.clear();
+        synchronized (statistics) {
+            new Statistics().copyTo(statistics);
+            statisticsChanged = false;
+        }
+    }
+
+    @Override
+    public void vehicleCounted(String vehicleType, int amount) {
+        synchronized (statistics) {
+            switch (vehicleType) {
+                case "Car":
+                    statistics.cars = amount;
+                    break;
+                case "Van":
+                    statistics.vans = amount;
+                    break;
+                case "Lorry":
+                    statistics.lorries = amount;
+                    break;
+            }
+            statisticsChanged = true;
+        }
+    }
+
+    @Override
+    public void averageSpeedChanged(String vehicleType, double averageSpeed) {
+        synchronized (statistics) {
+            switch (vehicleType) {
+                case "Car":
+                    statistics.carsSpeed = averageSpeed;
+                    break;
+                case "Van":
+                    statistics.vansSpeed = averageSpeed;
+                    break;
+                case "Lorry":
+                    statistics.lorriesSpeed = averageSpeed;
+                    break;
+            }
+            statisticsChanged = true;
+        }
+    }
+
+    @Override
+    public void timeChanged(double timeInSec) {
+        synchronized (statistics) {
+            statistics.timeInSec = timeInSec;
+            statisticsChanged = true;
+        }
+    }
+}
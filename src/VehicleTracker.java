@@ -0,0 +1,235 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows the vehicles from frame to frame, so that every vehicle is counted once, even when several vehicles
+ * cross the line in the same frame. Each detected box is associated with the track of the previous frame it
+ * overlaps most, or else the nearest one within the maximal distance; the tracks are looked up through a
+ * {@link SpatialGrid}, so a frame costs O(boxes) however dense the traffic is. A box without a track starts a
+ * new one, a track without a box is kept for a few frames before it is dropped. A track is counted once per lane.
+ */
+public class VehicleTracker {
+
+    /**
+     * A track which has crossed a line of a lane in the last frame.
+     */
+    public static class Crossing {
+        final Track track;
+        final int lane;
+
+        Crossing(Track track, int lane) {
+            this.track = track;
+            this.lane = lane;
+        }
+
+        public Track getTrack() {
+            return track;
+        }
+
+        public int getLane() {
+            return lane;
+        }
+    }
+
+    public static class Track {
+        private final int id;
+        int x;
+        int y;
+        int width;
+        int height;
+        double area;
+        int missed;
+        /**
+         * The bits of the lanes whose counting line the vehicle has crossed.
+         */
+        int countedLanes;
+        /**
+         * The bits of the lanes whose speed line the vehicle has crossed after the counting line.
+         */
+        int measuredLanes;
+        /**
+         * The row of the vehicle in the results of every lane it has been counted in.
+         */
+        final int[] rows;
+        /**
+         * The slot of the vehicle in the {@link PendingSpeedBuffer} of every lane it has been counted in.
+         */
+        final int[] slots;
+
+        Track(int id, int lanes) {
+            this.id = id;
+            this.rows = new int[lanes];
+            this.slots = new int[lanes];
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public double getArea() {
+            return area;
+        }
+
+        double centerX() {
+            return x + width / 2.0;
+        }
+
+        double centerY() {
+            return y + height / 2.0;
+        }
+    }
+
+    private final int lanes;
+    private final int maxDistance;
+    private final int maxMissed;
+    private final SpatialGrid grid;
+
+    private final List<Track> tracks = new ArrayList<>();
+    private final List<Crossing> counted = new ArrayList<>();
+    private final List<Crossing> measured = new ArrayList<>();
+    private boolean[] matched = new boolean[64];
+    private int[] found = new int[64];
+    private int nextId = 1;
+
+    /**
+     * @param maxDistance how far the center of a vehicle may move between two analysed frames
+     * @param maxMissed   for how many frames a track is kept without a box
+     */
+    public VehicleTracker(int lanes, int width, int height, int maxDistance, int maxMissed) {
+        this.lanes = lanes;
+        this.maxDistance = maxDistance;
+        this.maxMissed = maxMissed;
+        this.grid = new SpatialGrid(width, height, maxDistance);
+    }
+
+    /**
+     * Associates the boxes of the next frame with the tracks and checks which tracks have just crossed a line.
+     *
+     * @param boxes          x, y, width and height of every box
+     * @param areas          the contour area of every box
+     * @param countingMasks  the bits of the lanes whose counting line every box crosses, see {@link LineIndex}
+     * @param speedMasks     the bits of the lanes whose speed line every box crosses
+     */
+    public void update(int[] boxes, double[] areas, int count, int[] countingMasks, int[] speedMasks) {
+        counted.clear();
+        measured.clear();
+
+        int previous = tracks.size();
+        if (matched.length < previous) {
+            matched = new boolean[previous * 2];
+            found = new int[previous * 2];
+        }
+        grid.clear();
+        for (int t = 0; t < previous; t++) {
+            matched[t] = false;
+            Track track = tracks.get(t);
+            grid.insert(t, track.centerX(), track.centerY());
+        }
+
+        for (int i = 0; i < count; i++) {
+            int x = boxes[4 * i];
+            int y = boxes[4 * i + 1];
+            int width = boxes[4 * i + 2];
+            int height = boxes[4 * i + 3];
+
+            int best = associate(x, y, width, height);
+            Track track;
+            if (best < 0) {
+                track = new Track(nextId++, lanes);
+                tracks.add(track);
+            } else {
+                matched[best] = true;
+                track = tracks.get(best);
+            }
+            track.x = x;
+            track.y = y;
+            track.width = width;
+            track.height = height;
+            track.area = areas[i];
+            track.missed = 0;
+
+            int newlyCounted = countingMasks[i] & ~track.countedLanes;
+            track.countedLanes |= newlyCounted;
+            for (int lane = 0; newlyCounted != 0; lane++, newlyCounted >>>= 1) {
+                if ((newlyCounted & 1) != 0)
+                    counted.add(new Crossing(track, lane));
+            }
+            int newlyMeasured = speedMasks[i] & track.countedLanes & ~track.measuredLanes;
+            track.measuredLanes |= newlyMeasured;
+            for (int lane = 0; newlyMeasured != 0; lane++, newlyMeasured >>>= 1) {
+                if ((newlyMeasured & 1) != 0)
+                    measured.add(new Crossing(track, lane));
+            }
+        }
+
+        // only the tracks of the previous frame can have been missed, the new ones are behind them
+        int kept = 0;
+        for (int t = 0; t < tracks.size(); t++) {
+            Track track = tracks.get(t);
+            if (t < previous && !matched[t] && ++track.missed > maxMissed)
+                continue;
+            tracks.set(kept++, track);
+        }
+        tracks.subList(kept, tracks.size()).clear();
+    }
+
+    /**
+     * @return the index of the unmatched track of the previous frame which overlaps the box most, or whose center
+     * is nearest within the maximal distance; -1 if there is none
+     */
+    private int associate(int x, int y, int width, int height) {
+        double centerX = x + width / 2.0;
+        double centerY = y + height / 2.0;
+        int candidates = grid.query(centerX, centerY, maxDistance, found);
+
+        int best = -1;
+        double bestOverlap = 0;
+        double bestDistance = (double) maxDistance * maxDistance;
+        for (int c = 0; c < candidates; c++) {
+            int t = found[c];
+            if (matched[t])
+                continue;
+            Track track = tracks.get(t);
+
+            double overlap = intersectionOverUnion(track, x, y, width, height);
+            double dx = track.centerX() - centerX;
+            double dy = track.centerY() - centerY;
+            double distance = dx * dx + dy * dy;
+            if (overlap > bestOverlap || (bestOverlap == 0 && overlap == 0 && distance < bestDistance)) {
+                best = t;
+                bestOverlap = overlap;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    private static double intersectionOverUnion(Track track, int x, int y, int width, int height) {
+        int left = Math.max(track.x, x);
+        int top = Math.max(track.y, y);
+        int right = Math.min(track.x + track.width, x + width);
+        int bottom = Math.min(track.y + track.height, y + height);
+        if (right <= left || bottom <= top)
+            return 0;
+        double intersection = (double) (right - left) * (bottom - top);
+        return intersection / ((double) track.width * track.height + (double) width * height - intersection);
+    }
+
+    /**
+     * @return the tracks which have crossed the counting line of a lane in the last frame, in the order of their boxes
+     */
+    public List<Crossing> getCounted() {
+        return counted;
+    }
+
+    /**
+     * @return the tracks which have crossed the speed line of a lane they have been counted in, in the last frame
+     */
+    public List<Crossing> getMeasured() {
+        return measured;
+    }
+
+    public int getTrackCount() {
+        return tracks.size();
+    }
+}
@@ -0,0 +1,122 @@
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.videoio.VideoWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.opencv.imgproc.Imgproc.resize;
+
+/**
+ * Writes the annotated frames to a video file on its own thread, so that encoding never slows the analysis down.
+ * The frames are copied into a fixed pool of Mats and handed over through a bounded queue; when the encoder falls
+ * behind and no Mat is free the frame is dropped from the video. Only every n-th offered frame is written.
+ */
+public class VideoEncoder {
+    private static final int POOL_SIZE = 16;
+    private static final Mat END = new Mat();
+
+    private final VideoWriter writer;
+    private final Size size;
+    private final int frameStep;
+    private final BlockingQueue<Mat> free = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final BlockingQueue<Mat> queue = new ArrayBlockingQueue<>(POOL_SIZE + 1);
+    private final Thread thread;
+
+    private long offered;
+    private volatile long droppedFrames;
+    private volatile long writtenFrames;
+    private boolean isClosed = false;
+
+    /**
+     * @param fourcc    the four characters of the codec, e.g. "PIM1" for MPEG-1 or "XVID"
+     * @param fps       the frame rate of the analysed video; the file gets fps / frameStep
+     * @param size      the size of the written frames; the offered frames are scaled to it
+     * @param frameStep write only every frameStep-th frame
+     * @throws IOException when the file can't be opened for writing with the codec
+     */
+    public VideoEncoder(File file, String fourcc, double fps, Size size, int frameStep) throws IOException {
+        if (fourcc.length() != 4)
+            throw new IllegalArgumentException("A codec must be given by four characters, not \"" + fourcc + "\"");
+        this.size = size;
+        this.frameStep = Math.max(1, frameStep);
+        this.writer = new VideoWriter(file.getPath(), VideoWriter.fourcc(fourcc.charAt(0), fourcc.charAt(1), fourcc.charAt(2), fourcc.charAt(3)),
+                fps / this.frameStep, size);
+        if (!writer.isOpened()) {
+            writer.release();
+            throw new IOException("Couldn't open " + file + " with the codec " + fourcc);
+        }
+        for (int i = 0; i < POOL_SIZE; i++) {
+            free.add(new Mat());
+        }
+        thread = new Thread(this::encode, "encoding " + file.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Copies the frame for the encoder unless it is skipped by the frame step or all the pooled Mats are in use.
+     * Called from one thread only.
+     *
+     * @return true when the frame will be written
+     */
+    public boolean offer(Mat image) {
+        if (offered++ % frameStep != 0)
+            return false;
+        Mat copy = free.poll();
+        if (copy == null) {
+            droppedFrames++;
+            return false;
+        }
+        if (image.cols() == (int) size.width && image.rows() == (int) size.height)
+            image.copyTo(copy);
+        else
+            resize(image, copy, size);
+        queue.add(copy);
+        return true;
+    }
+
+    private void encode() {
+        try {
+            while (true) {
+                Mat image = queue.take();
+                if (image == END)
+                    return;
+                writer.write(image);
+                writtenFrames++;
+                free.add(image);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Writes the queued frames and closes the file. Further calls do nothing.
+     */
+    public synchronized void close() {
+        if (isClosed)
+            return;
+        isClosed = true;
+        queue.add(END);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.release();
+    }
+
+    /**
+     * @return the frames left out because the encoder was behind, not counting the ones left out by the frame step
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public long getWrittenFrames() {
+        return writtenFrames;
+    }
+}
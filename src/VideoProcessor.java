@@ -4,10 +4,29 @@ import org.opencv.core.Mat;
  * Created by Krzysiek on 2016-07-23.
  */
 public interface VideoProcessor {
+    String[] ENGINES = {"mog2", "knn", "average", "difference"};
+
     Mat process(Mat inputImage);
 
     void setImageThreshold(double imageThreshold);
 
     void setHistory(int history);
 
+    /**
+     * @param engine one of {@link #ENGINES}
+     */
+    static VideoProcessor create(String engine, double imageThreshold, int history) {
+        switch (engine.trim().toLowerCase()) {
+            case "mog2":
+                return new MixtureOfGaussianBackground(imageThreshold, history);
+            case "knn":
+                return new KNearestNeighboursBackground(imageThreshold, history);
+            case "average":
+                return new RunningAverageBackground(imageThreshold, history);
+            case "difference":
+                return new FrameDifferenceBackground(imageThreshold);
+            default:
+                throw new IllegalArgumentException("Unknown engine \"" + engine + "\", use one of mog2, knn, average, difference");
+        }
+    }
 }